@@ -0,0 +1,55 @@
+-- Замеры схемы на 1M пользователей и 10M отзывов, см. schema-benchmark.md
+\timing on
+
+-- 1M пользователей по две authority; на исходной схеме таблица заполняется один раз
+insert into t_user(id, c_username, c_password)
+select i, 'user' || i, '{noop}password'
+from generate_series(1000, 1000999) i
+on conflict do nothing;
+
+insert into t_user_authority(id_user, c_authority)
+select i, a
+from generate_series(1000, 1000999) i,
+     unnest(array ['ROLE_USER', 'ROLE_READER']) a
+where not exists(select from t_user_authority where id_user = 1000);
+
+-- 10M отметок со сроками в ближайшие сутки, в порядке вставки - как их пишет приложение;
+-- треть уже истекла (check из V1 снимается на время загрузки и возвращается после, пока V2 не применена)
+alter table t_deactivated_token drop constraint if exists t_deactivated_token_c_keep_until_check;
+insert into t_deactivated_token(id, c_keep_until)
+select gen_random_uuid(), now() - interval '8 hours' + i * interval '8640 microseconds'
+from generate_series(1, 10000000) i
+where not exists(select from t_deactivated_token limit 1);
+do
+$$
+    begin
+        if to_regclass('bi_deactivated_token_keep_until') is null then
+            alter table t_deactivated_token
+                add constraint t_deactivated_token_c_keep_until_check check (c_keep_until > now()) not valid;
+        end if;
+    end
+$$;
+analyze;
+
+explain (analyze, buffers) select * from t_user where c_username = 'user777777';
+explain (analyze, buffers) select c_authority from t_user_authority where id_user = 777777;
+explain (analyze, buffers)
+select exists(select id from t_deactivated_token where id = gen_random_uuid());
+
+-- вставка 10k отметок: цена check и индексов
+begin;
+explain (analyze, buffers)
+insert into t_deactivated_token(id, c_keep_until)
+select gen_random_uuid(), now() + interval '5 minutes' from generate_series(1, 10000);
+rollback;
+
+-- один пакет удаления JdbcRevocationStore.purgeExpired
+begin;
+explain (analyze, buffers)
+delete from t_deactivated_token
+where id in (select id from t_deactivated_token where c_keep_until < now() limit 10000);
+rollback;
+
+select pg_size_pretty(pg_relation_size(indexrelid)) as size, indexrelid::regclass as index
+from pg_index
+where indrelid in ('t_user'::regclass, 't_user_authority'::regclass, 't_deactivated_token'::regclass);
@@ -3,16 +3,15 @@ package pro.akosarev.sandbox;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSVerifier;
 import com.nimbusds.jwt.SignedJWT;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import pro.akosarev.sandbox.SecurityEventLogger.TokenFailureKind;
 
 import java.text.ParseException;
-import java.util.UUID;
 import java.util.function.Function;
 
 public class AccessTokenJwsStringDeserializer implements Function<String, AccessToken> {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTokenJwsStringDeserializer.class);
+    private static final SecurityEventLogger SECURITY_EVENTS =
+            new SecurityEventLogger(AccessTokenJwsStringDeserializer.class.getSimpleName());
 
     private final JWSVerifier jwsVerifier;
 
@@ -26,13 +25,17 @@ public class AccessTokenJwsStringDeserializer implements Function<String, Access
             var signedJWT = SignedJWT.parse(string);
             if (signedJWT.verify(this.jwsVerifier)) {
                 var claimsSet = signedJWT.getJWTClaimsSet();
-                return new AccessToken(UUID.fromString(claimsSet.getJWTID()), claimsSet.getSubject(),
+                var jti = claimsSet.getJWTID();
+                return new AccessToken(TokenIds.mostSigBits(jti), TokenIds.leastSigBits(jti), claimsSet.getSubject(),
                         claimsSet.getStringListClaim("authorities"),
-                        claimsSet.getIssueTime().toInstant(),
-                        claimsSet.getExpirationTime().toInstant());
+                        claimsSet.getIssueTime().getTime() / 1000,
+                        claimsSet.getExpirationTime().getTime() / 1000);
             }
-        } catch (ParseException | JOSEException exception) {
-            LOGGER.error(exception.getMessage(), exception);
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.INVALID_SIGNATURE, null);
+        } catch (ParseException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.MALFORMED, exception);
+        } catch (JOSEException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.INVALID_SIGNATURE, exception);
         }
 
         return null;
@@ -0,0 +1,257 @@
+package pro.akosarev.sandbox;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Пакетная выдача токенов для сервисов и batch-задач: POST /jwt/tokens/bulk
+ *
+ * Вместо того чтобы вызывать /jwt/tokens для каждого пользователя (полный проход цепочки фильтров
+ * и Basic-аутентификация на каждый вызов), привилегированный клиент передает список subject'ов:
+ * {"subjects": ["j.jameson", ...]}
+ *
+ * Authorities всех пользователей загружаются одним запросом (c_username = any(?)),
+ * токены подписываются/шифруются параллельно на отдельном ограниченном пуле {@link BulkTokenIssuancePool}
+ * (без пула - последовательно на потоке запроса),
+ * а результат отдается построчно в формате NDJSON - по одному JSON-объекту на строку.
+ */
+public class BulkJwtTokensFilter extends OncePerRequestFilter {
+
+    private RequestMatcher requestMatcher = PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/tokens/bulk");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private Function<Authentication, RefreshToken> refreshTokenFactory = new DefaultRefreshTokenFactory();
+
+    private Function<Authentication, AccessToken> accessTokenFactory = new DefaultAccessTokenFactory();
+
+    private Function<RefreshToken, String> refreshTokenStringSerializer = Object::toString;
+
+    private Function<AccessToken, String> accessTokenStringSerializer = Object::toString;
+
+    private ObjectMapper objectMapper = JsonMapper.shared();
+
+//    право, без которого пакетная выдача запрещена
+    private String requiredAuthority = "ROLE_TOKEN_ISSUER";
+
+    private int maxSubjects = 10_000;
+
+//    сколько записей подписывается параллельно перед сбросом в ответ
+    private int chunkSize = 256;
+
+    private BulkTokenIssuancePool issuancePool;
+
+    public BulkJwtTokensFilter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (!this.requestMatcher.matches(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        var authentication = SecurityContextHolder.getContext().getAuthentication();
+        // как и /jwt/tokens - только по логину/паролю и только с нужным правом
+        if (authentication == null || !authentication.isAuthenticated() ||
+            authentication instanceof PreAuthenticatedAuthenticationToken ||
+            !hasRequiredAuthority(authentication)) {
+            throw new AccessDeniedException("User must be authenticated with %s".formatted(this.requiredAuthority));
+        }
+
+        List<String> subjects;
+        try {
+            var bulkRequest = this.objectMapper.readValue(request.getInputStream(), BulkTokensRequest.class);
+            subjects = bulkRequest.subjects();
+        } catch (JacksonException exception) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        if (subjects == null || subjects.isEmpty() || subjects.size() > this.maxSubjects ||
+            !allSubjectsPresent(subjects)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        var uniqueSubjects = List.copyOf(new LinkedHashSet<>(subjects));
+        var authorities = loadAuthorities(uniqueSubjects);
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        var outputStream = response.getOutputStream();
+        for (int from = 0; from < uniqueSubjects.size(); from += this.chunkSize) {
+            var chunk = uniqueSubjects.subList(from, Math.min(from + this.chunkSize, uniqueSubjects.size()));
+            // подпись и шифрование - самая дорогая часть, её отдаем пулу,
+            // а запись в ответ остается на потоке запроса и сохраняет порядок subject'ов
+            var lines = new ArrayList<CompletableFuture<byte[]>>(chunk.size());
+            for (var subject : chunk) {
+                lines.add(this.issuancePool != null
+                        ? this.issuancePool.submit(() -> issue(subject, authorities.get(subject)))
+                        : CompletableFuture.completedFuture(issue(subject, authorities.get(subject))));
+            }
+            for (var line : lines) {
+                outputStream.write(join(line));
+                outputStream.write('\n');
+            }
+            outputStream.flush();
+        }
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw exception;
+        }
+    }
+
+    private boolean hasRequiredAuthority(Authentication authentication) {
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            if (this.requiredAuthority.equals(authority.getAuthority())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+//    {"subjects": [null]} или пустая строка - ошибка клиента, а не 500 из List.copyOf
+    private static boolean allSubjectsPresent(List<String> subjects) {
+        for (var subject : subjects) {
+            if (subject == null || subject.isBlank()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Загружает authorities всех пользователей одним запросом.
+     * Пользователь без authorities присутствует в результате с пустым списком,
+     * неизвестного пользователя в результате нет.
+     */
+    private Map<String, List<String>> loadAuthorities(List<String> subjects) {
+        var authorities = new HashMap<String, List<String>>(subjects.size() * 2);
+        this.jdbcTemplate.query("""
+                        select u.c_username, a.c_authority
+                        from t_user u
+                                 left join t_user_authority a on a.id_user = u.id
+                        where u.c_username = any (?)
+                        """,
+                rs -> {
+                    var userAuthorities = authorities.computeIfAbsent(rs.getString("c_username"),
+                            username -> new ArrayList<>());
+                    var authority = rs.getString("c_authority");
+                    if (authority != null) {
+                        userAuthorities.add(authority);
+                    }
+                },
+                (Object) subjects.toArray(String[]::new));
+        return authorities;
+    }
+
+    private byte[] issue(String subject, List<String> authorities) {
+        if (authorities == null) {
+            return this.objectMapper.writeValueAsBytes(new BulkTokensEntry(subject, null, "unknown_subject"));
+        }
+
+        var authentication = UsernamePasswordAuthenticationToken.authenticated(subject, null,
+                authorities.stream().map(SimpleGrantedAuthority::new).toList());
+        var refreshToken = this.refreshTokenFactory.apply(authentication);
+        var accessToken = this.accessTokenFactory.apply(authentication);
+
+        return this.objectMapper.writeValueAsBytes(new BulkTokensEntry(subject,
+                new Tokens(this.accessTokenStringSerializer.apply(accessToken),
+                        accessToken.expiresAt().toString(),
+                        this.refreshTokenStringSerializer.apply(refreshToken),
+                        refreshToken.expiresAt().toString()),
+                null));
+    }
+
+    public void setRequestMatcher(RequestMatcher requestMatcher) {
+        this.requestMatcher = requestMatcher;
+    }
+
+    public void setRefreshTokenFactory(Function<Authentication, RefreshToken> refreshTokenFactory) {
+        this.refreshTokenFactory = refreshTokenFactory;
+    }
+
+    public void setAccessTokenFactory(Function<Authentication, AccessToken> accessTokenFactory) {
+        this.accessTokenFactory = accessTokenFactory;
+    }
+
+    public void setRefreshTokenStringSerializer(Function<RefreshToken, String> refreshTokenStringSerializer) {
+        this.refreshTokenStringSerializer = refreshTokenStringSerializer;
+    }
+
+    public void setAccessTokenStringSerializer(Function<AccessToken, String> accessTokenStringSerializer) {
+        this.accessTokenStringSerializer = accessTokenStringSerializer;
+    }
+
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void setRequiredAuthority(String requiredAuthority) {
+        this.requiredAuthority = requiredAuthority;
+    }
+
+    public void setMaxSubjects(int maxSubjects) {
+        this.maxSubjects = maxSubjects;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setIssuancePool(BulkTokenIssuancePool issuancePool) {
+        this.issuancePool = issuancePool;
+    }
+
+    /**
+     * Тело запроса пакетной выдачи
+     */
+    public record BulkTokensRequest(List<String> subjects) {
+    }
+
+    /**
+     * Одна строка NDJSON-ответа: токены пользователя или причина, по которой они не выданы
+     */
+    public record BulkTokensEntry(String subject, Tokens tokens, String error) {
+    }
+}
@@ -0,0 +1,41 @@
+package pro.akosarev.sandbox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Пул подписи и шифрования для пакетной выдачи токенов ({@link BulkJwtTokensFilter}).
+ *
+ * Общий ForkJoinPool JVM (parallelStream) делят все компоненты процесса, а его размер не настраивается:
+ * один большой пакет занимал его целиком. Здесь у пакетной выдачи свой пул фиксированного размера
+ * с ограниченной очередью. Когда очередь заполнена, задачу выполняет сам поток запроса: ответ уже начат
+ * со статусом 200, отказывать посреди потока NDJSON нельзя, а так пакет просто замедляется и одновременно
+ * занимает не больше threads + 1 потоков на запрос.
+ */
+public class BulkTokenIssuancePool implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads       потоков подписи и шифрования на все пакетные запросы
+     * @param queueCapacity задач в очереди пула; сверх нее задачи выполняет поток запроса
+     */
+    public BulkTokenIssuancePool(int threads, int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("bulk-token-issuance-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, this.executor);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package pro.akosarev.sandbox;
+
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Десериализатор токенов с проверенной подписью (JWS) или расшифровкой (JWE) в {@link TwoTierCache}.
+ *
+ * Ключ кэша - строка токена целиком, поэтому подделать попадание нельзя: любое изменение строки
+ * дает промах и обычную проверку. Значение живет до expiresAt токена. Битые и просроченные токены
+ * не кэшируются. Отзыв кэшем не затрагивается и проверяется на каждый запрос.
+ *
+ * @param <T> {@link AccessToken} или {@link RefreshToken}
+ */
+public class CachingTokenStringDeserializer<T> implements Function<String, T> {
+
+    private final Function<String, T> tokenStringDeserializer;
+
+    private final TwoTierCache<T> cache;
+
+    private final ToLongFunction<T> expiresAtEpochSecond;
+
+    /**
+     * @param tokenStringDeserializer десериализатор, проверяющий токен при промахе
+     * @param cache                   кэш проверенных токенов
+     * @param expiresAtEpochSecond    срок действия токена, например {@code AccessToken::expiresAtEpochSecond}
+     */
+    public CachingTokenStringDeserializer(Function<String, T> tokenStringDeserializer, TwoTierCache<T> cache,
+                                          ToLongFunction<T> expiresAtEpochSecond) {
+        this.tokenStringDeserializer = tokenStringDeserializer;
+        this.cache = cache;
+        this.expiresAtEpochSecond = expiresAtEpochSecond;
+    }
+
+    @Override
+    public T apply(String string) {
+        var token = this.cache.get(string);
+        if (token != null) {
+            return token;
+        }
+
+        token = this.tokenStringDeserializer.apply(string);
+        if (token != null) {
+            this.cache.put(string, token, this.expiresAtEpochSecond.applyAsLong(token));
+        }
+
+        return token;
+    }
+
+    public TwoTierCache<T> getCache() {
+        return this.cache;
+    }
+}
@@ -3,8 +3,8 @@ package pro.akosarev.sandbox;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 
+import java.time.Clock;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -16,24 +16,31 @@ public class DefaultAccessTokenFactory implements Function<Authentication, Acces
 
     private Duration tokenTtl = Duration.ofMinutes(5);
 
+    private Clock clock = CachedClock.getDefault();
+
     @Override
     public AccessToken apply(Authentication authentication) {
-        var now = Instant.now();
+        var id = UUID.randomUUID();
+        var now = this.clock.millis() / 1000;
         var authorities = authentication.getAuthorities()
                 .stream()
                 .map(GrantedAuthority::getAuthority)
                 .toList();
         
         return new AccessToken(
-                UUID.randomUUID(),
+                id.getMostSignificantBits(), id.getLeastSignificantBits(),
                 authentication.getName(),
                 authorities,
                 now,
-                now.plus(this.tokenTtl)
+                now + this.tokenTtl.toSeconds()
         );
     }
 
     public void setTokenTtl(Duration tokenTtl) {
         this.tokenTtl = tokenTtl;
     }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
 }
@@ -2,8 +2,8 @@ package pro.akosarev.sandbox;
 
 import org.springframework.security.core.Authentication;
 
+import java.time.Clock;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -15,18 +15,25 @@ public class DefaultRefreshTokenFactory implements Function<Authentication, Refr
 
     private Duration tokenTtl = Duration.ofDays(1);
 
+    private Clock clock = CachedClock.getDefault();
+
     @Override
     public RefreshToken apply(Authentication authentication) {
-        var now = Instant.now();
+        var id = UUID.randomUUID();
+        var now = this.clock.millis() / 1000;
         return new RefreshToken(
-                UUID.randomUUID(), 
+                id.getMostSignificantBits(), id.getLeastSignificantBits(),
                 authentication.getName(), 
                 now, 
-                now.plus(this.tokenTtl)
+                now + this.tokenTtl.toSeconds()
         );
     }
 
     public void setTokenTtl(Duration tokenTtl) {
         this.tokenTtl = tokenTtl;
     }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
 }
@@ -5,18 +5,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.CachingUserDetailsService;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.annotation.web.configurers.CsrfConfigurer;
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.security.web.access.ExceptionTranslationFilter;
 import org.springframework.security.web.authentication.AuthenticationFilter;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
-import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.security.web.csrf.CsrfFilter;
 import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
 
+import java.time.Clock;
 import java.util.function.Function;
 
 // AbstractHttpConfigurer используется для создания кастомных конфигураторов безопасности в Spring Security.
@@ -32,6 +36,32 @@ public class JwtAuthenticationConfigurer extends AbstractHttpConfigurer<JwtAuthe
 
     private JdbcTemplate jdbcTemplate;
 
+//    один настроенный маппер на все эндпоинты выдачи токенов
+    private ObjectMapper objectMapper = JsonMapper.shared();
+
+    private ParallelTokenIssuer parallelTokenIssuer;
+
+//    пул подписи для /jwt/tokens/bulk; null - последовательно на потоке запроса
+    private BulkTokenIssuancePool bulkTokenIssuancePool;
+
+    private RefreshRateLimiter refreshRateLimiter;
+
+//    лимит /jwt/refresh на пользователя по всем его refresh-токенам
+    private RefreshRateLimiter subjectRateLimiter;
+
+//    хранилище отозванных токенов; по умолчанию - таблица t_deactivated_token через jdbcTemplate
+    private RevocationStore revocationStore;
+
+//    часы для выдачи токенов и проверки их срока; по умолчанию - кэшированное время с фоновым обновлением
+    private Clock clock = CachedClock.getDefault();
+
+//    кэши проверенных токенов и пользователей для /jwt/refresh; null - без кэша
+    private TwoTierCache<AccessToken> accessTokenCache;
+
+    private TwoTierCache<RefreshToken> refreshTokenCache;
+
+    private UserCache userCache;
+
     @Autowired
     UserDetailsService userDetailsService;
 
@@ -49,7 +79,9 @@ public class JwtAuthenticationConfigurer extends AbstractHttpConfigurer<JwtAuthe
     public void init(HttpSecurity builder) {
         var csrfConfigurer = builder.getConfigurer(CsrfConfigurer.class);
         if (csrfConfigurer != null) {
-            csrfConfigurer.ignoringRequestMatchers(PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/tokens"));
+            csrfConfigurer.ignoringRequestMatchers(PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/tokens"),
+                    PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/tokens/bulk"),
+                    PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/introspect"));
         }
     }
 
@@ -58,13 +90,47 @@ public class JwtAuthenticationConfigurer extends AbstractHttpConfigurer<JwtAuthe
      */
     @Override
     public void configure(HttpSecurity builder) {
+        var accessTokenFactory = new DefaultAccessTokenFactory();
+        accessTokenFactory.setClock(this.clock);
+        var refreshTokenFactory = new DefaultRefreshTokenFactory();
+        refreshTokenFactory.setClock(this.clock);
+
         var requestJwtTokensFilter = new RequestJwtTokensFilter();
+        requestJwtTokensFilter.setAccessTokenFactory(accessTokenFactory);
+        requestJwtTokensFilter.setRefreshTokenFactory(refreshTokenFactory);
         requestJwtTokensFilter.setAccessTokenStringSerializer(this.accessTokenStringSerializer);
         requestJwtTokensFilter.setRefreshTokenStringSerializer(this.refreshTokenStringSerializer);
+        requestJwtTokensFilter.setObjectMapper(this.objectMapper);
+        requestJwtTokensFilter.setParallelTokenIssuer(this.parallelTokenIssuer);
+
+//        пакетная выдача токенов для сервисов, authorities загружаются одним запросом
+        var bulkJwtTokensFilter = new BulkJwtTokensFilter(this.jdbcTemplate);
+        bulkJwtTokensFilter.setAccessTokenFactory(accessTokenFactory);
+        bulkJwtTokensFilter.setRefreshTokenFactory(refreshTokenFactory);
+        bulkJwtTokensFilter.setAccessTokenStringSerializer(this.accessTokenStringSerializer);
+        bulkJwtTokensFilter.setRefreshTokenStringSerializer(this.refreshTokenStringSerializer);
+        bulkJwtTokensFilter.setObjectMapper(this.objectMapper);
+        bulkJwtTokensFilter.setIssuancePool(this.bulkTokenIssuancePool);
+
+        var revocationStore = getRevocationStore();
+
+//        подпись и расшифровка токена проверяются один раз, пока он в кэше; отзыв - на каждом запросе
+        var accessTokenStringDeserializer = this.accessTokenCache != null
+                ? new CachingTokenStringDeserializer<>(this.accessTokenStringDeserializer, this.accessTokenCache,
+                AccessToken::expiresAtEpochSecond)
+                : this.accessTokenStringDeserializer;
+        var refreshTokenStringDeserializer = this.refreshTokenCache != null
+                ? new CachingTokenStringDeserializer<>(this.refreshTokenStringDeserializer, this.refreshTokenCache,
+                RefreshToken::expiresAtEpochSecond)
+                : this.refreshTokenStringDeserializer;
+
+        var jwtAuthenticationConverter = new JwtAuthenticationConverter(revocationStore,
+                accessTokenStringDeserializer, refreshTokenStringDeserializer);
+        jwtAuthenticationConverter.setClock(this.clock);
 
         // создаем новый фильтр
         var jwtAuthenticationFilter = new AuthenticationFilter(builder.getSharedObject(AuthenticationManager.class),
-                new JwtAuthenticationConverter(jdbcTemplate, this.accessTokenStringDeserializer, this.refreshTokenStringDeserializer));
+                jwtAuthenticationConverter);
         jwtAuthenticationFilter
 //        При успехе: пропускает CSRF-проверку для данного запроса, так как куки при аутентификации не используются
 //        Поведение по умолчнию было бы отправить на index.html
@@ -76,24 +142,52 @@ public class JwtAuthenticationConfigurer extends AbstractHttpConfigurer<JwtAuthe
                         -> response.sendError(HttpServletResponse.SC_FORBIDDEN)); // 403
 
         var authenticationProvider = new PreAuthenticatedAuthenticationProvider();
-        var authenticationUserDetailsService = new TokenAuthenticationUserDetailsService(this.jdbcTemplate);
+        var authenticationUserDetailsService = new TokenAuthenticationUserDetailsService(revocationStore);
+        authenticationUserDetailsService.setClock(this.clock);
         authenticationProvider.setPreAuthenticatedUserDetailsService(
                 authenticationUserDetailsService);
 
 
-        var refreshTokenFilter = new RefreshTokenFilter(userDetailsService);
+        var refreshUserDetailsService = this.userDetailsService;
+        if (this.userCache != null) {
+            var cachingUserDetailsService = new CachingUserDetailsService(this.userDetailsService);
+            cachingUserDetailsService.setUserCache(this.userCache);
+            refreshUserDetailsService = cachingUserDetailsService;
+        }
+
+        var refreshTokenFilter = new RefreshTokenFilter(refreshUserDetailsService);
+        refreshTokenFilter.setAccessTokenFactory(accessTokenFactory);
         refreshTokenFilter.setAccessTokenStringSerializer(this.accessTokenStringSerializer);
+        refreshTokenFilter.setObjectMapper(this.objectMapper);
+        refreshTokenFilter.setRefreshRateLimiter(this.refreshRateLimiter);
+        refreshTokenFilter.setSubjectRateLimiter(this.subjectRateLimiter);
+
+        var jwtLogoutFilter = new JwtLogoutFilter(revocationStore);
+        jwtLogoutFilter.setRefreshTokenCache(this.refreshTokenCache);
 
-        var jwtLogoutFilter = new JwtLogoutFilter(this.jdbcTemplate);
+//        проверка access-токенов для сервисов без ключа HMAC, отзыв проверяется одним запросом на пакет
+        var tokenIntrospectionFilter = new TokenIntrospectionFilter(revocationStore);
+        tokenIntrospectionFilter.setAccessTokenStringDeserializer(accessTokenStringDeserializer);
+        tokenIntrospectionFilter.setObjectMapper(this.objectMapper);
+        tokenIntrospectionFilter.setClock(this.clock);
+
+//        один фильтр вместо пяти: маршрут по методу и пути выбирается одним switch
+        var jwtEndpointsFilter = new JwtEndpointsFilter(requestJwtTokensFilter, bulkJwtTokensFilter,
+                refreshTokenFilter, jwtLogoutFilter, tokenIntrospectionFilter);
 
-        builder.addFilterAfter(requestJwtTokensFilter, BasicAuthenticationFilter.class)
 //                обязательно до CsrfFilter
-                .addFilterBefore(jwtAuthenticationFilter, CsrfFilter.class)
-                .addFilterAfter(refreshTokenFilter, ExceptionTranslationFilter.class)
-                .addFilterAfter(jwtLogoutFilter, ExceptionTranslationFilter.class)
+        builder.addFilterBefore(jwtAuthenticationFilter, CsrfFilter.class)
+//                после ExceptionTranslationFilter: AccessDeniedException превращается в 401/403,
+//                а Basic-аутентификация к этому моменту уже выполнена
+                .addFilterAfter(jwtEndpointsFilter, ExceptionTranslationFilter.class)
                 .authenticationProvider(authenticationProvider);
     }
 
+    public JwtAuthenticationConfigurer clock(Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
     public JwtAuthenticationConfigurer refreshTokenStringSerializer(
             Function<RefreshToken, String> refreshTokenStringSerializer) {
         this.refreshTokenStringSerializer = refreshTokenStringSerializer;
@@ -122,4 +216,78 @@ public class JwtAuthenticationConfigurer extends AbstractHttpConfigurer<JwtAuthe
         this.jdbcTemplate = jdbcTemplate;
         return this;
     }
+
+    public JwtAuthenticationConfigurer objectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer parallelTokenIssuer(ParallelTokenIssuer parallelTokenIssuer) {
+        this.parallelTokenIssuer = parallelTokenIssuer;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer bulkTokenIssuancePool(BulkTokenIssuancePool bulkTokenIssuancePool) {
+        this.bulkTokenIssuancePool = bulkTokenIssuancePool;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer refreshRateLimiter(RefreshRateLimiter refreshRateLimiter) {
+        this.refreshRateLimiter = refreshRateLimiter;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer subjectRateLimiter(RefreshRateLimiter subjectRateLimiter) {
+        this.subjectRateLimiter = subjectRateLimiter;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer revocationStore(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer accessTokenCache(TwoTierCache<AccessToken> accessTokenCache) {
+        this.accessTokenCache = accessTokenCache;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer refreshTokenCache(TwoTierCache<RefreshToken> refreshTokenCache) {
+        this.refreshTokenCache = refreshTokenCache;
+        return this;
+    }
+
+    public JwtAuthenticationConfigurer userCache(UserCache userCache) {
+        this.userCache = userCache;
+        return this;
+    }
+
+//    для прогрева (JwtWarmup): те же экземпляры, что получат фильтры
+    Function<AccessToken, String> getAccessTokenStringSerializer() {
+        return this.accessTokenStringSerializer;
+    }
+
+    Function<RefreshToken, String> getRefreshTokenStringSerializer() {
+        return this.refreshTokenStringSerializer;
+    }
+
+    Function<String, AccessToken> getAccessTokenStringDeserializer() {
+        return this.accessTokenStringDeserializer;
+    }
+
+    Function<String, RefreshToken> getRefreshTokenStringDeserializer() {
+        return this.refreshTokenStringDeserializer;
+    }
+
+    ObjectMapper getObjectMapper() {
+        return this.objectMapper;
+    }
+
+    RevocationStore getRevocationStore() {
+        if (this.revocationStore == null) {
+            this.revocationStore = new JdbcRevocationStore(this.jdbcTemplate);
+        }
+
+        return this.revocationStore;
+    }
 }
\ No newline at end of file
@@ -2,15 +2,13 @@ package pro.akosarev.sandbox;
 
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.HttpHeaders;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.web.authentication.AuthenticationConverter;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 
-import java.time.Instant;
+import java.time.Clock;
 import java.util.List;
-import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -24,14 +22,20 @@ import java.util.stream.Collectors;
  */
 public class JwtAuthenticationConverter implements AuthenticationConverter {
 
-    private final JdbcTemplate jdbcTemplate;
+    private static final int JWS_PARTS = 3;
+
+    private static final int JWE_PARTS = 5;
+
+    private final RevocationStore revocationStore;
 
     private Function<String, AccessToken> accessTokenStringDeserializer;
 
     private Function<String, RefreshToken> refreshTokenStringDeserializer;
 
-    public JwtAuthenticationConverter(JdbcTemplate jdbcTemplate, Function<String, AccessToken> accessTokenStringDeserializer, Function<String, RefreshToken> refreshTokenStringDeserializer) {
-        this.jdbcTemplate = jdbcTemplate;
+    private Clock clock = CachedClock.getDefault();
+
+    public JwtAuthenticationConverter(RevocationStore revocationStore, Function<String, AccessToken> accessTokenStringDeserializer, Function<String, RefreshToken> refreshTokenStringDeserializer) {
+        this.revocationStore = revocationStore;
         this.accessTokenStringDeserializer = accessTokenStringDeserializer;
         this.refreshTokenStringDeserializer = refreshTokenStringDeserializer;
     }
@@ -41,30 +45,47 @@ public class JwtAuthenticationConverter implements AuthenticationConverter {
         var authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
         if (authorization != null && authorization.startsWith("Bearer ")) {
             var token = extractBearerToken(authorization);
+            // JWS состоит из трех частей, JWE - из пяти. Не разбираем refresh-токен как access-токен
+            // заведомо с ошибкой: это лишняя работа и ложное событие безопасности на каждом /jwt/refresh
+            var parts = countParts(token);
 
             // Пытаемся десериализовать как Access Token
-            var accessToken = this.accessTokenStringDeserializer.apply(token);
-            if (isValidAccessToken(accessToken)) {
-                return createAccessTokenAuthentication(accessToken, token);
+            if (parts != JWE_PARTS) {
+                var accessToken = this.accessTokenStringDeserializer.apply(token);
+                if (isValidAccessToken(accessToken)) {
+                    return createAccessTokenAuthentication(accessToken, token);
+                }
             }
 
             // Пытаемся десериализовать как Refresh Token
-            var refreshToken = this.refreshTokenStringDeserializer.apply(token);
-            if (isValidRefreshToken(refreshToken)) {
-                return createRefreshTokenAuthentication(refreshToken, token);
+            if (parts != JWS_PARTS) {
+                var refreshToken = this.refreshTokenStringDeserializer.apply(token);
+                if (isValidRefreshToken(refreshToken)) {
+                    return createRefreshTokenAuthentication(refreshToken, token);
+                }
             }
         }
 
         return null;
     }
 
+    private static int countParts(String token) {
+        var parts = 1;
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) == '.') {
+                parts++;
+            }
+        }
+
+        return parts;
+    }
+
     private String extractBearerToken(String authorization) {
         return authorization.replace("Bearer ", "");
     }
 
-    private boolean isTokenNotDeactivated(UUID tokenId) {
-        return this.jdbcTemplate.queryForList("SELECT id FROM t_deactivated_token WHERE id = ?", tokenId)
-                .isEmpty();
+    private boolean isTokenNotDeactivated(long idMostSigBits, long idLeastSigBits) {
+        return !this.revocationStore.isRevoked(idMostSigBits, idLeastSigBits);
     }
 
     private List<SimpleGrantedAuthority> convertToGrantedAuthorities(List<String> authorities) {
@@ -75,14 +96,14 @@ public class JwtAuthenticationConverter implements AuthenticationConverter {
 
     private boolean isValidAccessToken(AccessToken accessToken) {
         return accessToken != null &&
-               accessToken.expiresAt().isAfter(Instant.now()) &&
-               isTokenNotDeactivated(accessToken.id());
+               accessToken.expiresAtEpochSecond() * 1000 > this.clock.millis() &&
+               isTokenNotDeactivated(accessToken.idMostSigBits(), accessToken.idLeastSigBits());
     }
 
     private boolean isValidRefreshToken(RefreshToken refreshToken) {
         return refreshToken != null &&
-               refreshToken.expiresAt().isAfter(Instant.now()) &&
-               isTokenNotDeactivated(refreshToken.id());
+               refreshToken.expiresAtEpochSecond() * 1000 > this.clock.millis() &&
+               isTokenNotDeactivated(refreshToken.idMostSigBits(), refreshToken.idLeastSigBits());
     }
 
     private PreAuthenticatedAuthenticationToken createAccessTokenAuthentication(AccessToken accessToken, String token) {
@@ -110,4 +131,8 @@ public class JwtAuthenticationConverter implements AuthenticationConverter {
     public void setRefreshTokenStringDeserializer(Function<String, RefreshToken> refreshTokenStringDeserializer) {
         this.refreshTokenStringDeserializer = refreshTokenStringDeserializer;
     }
-}
\ No newline at end of file
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
@@ -0,0 +1,75 @@
+package pro.akosarev.sandbox;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.util.matcher.AnyRequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Единая точка входа для эндпоинтов /jwt/**.
+ *
+ * Раньше каждый из фильтров выдачи, обновления и отзыва токенов стоял в цепочке отдельно и на каждом
+ * запросе выполнял свой PathPatternRequestMatcher. Здесь маршрут выбирается одним switch по методу и пути,
+ * поэтому обычный API-запрос проходит ровно одну дешевую проверку - сравнение метода.
+ *
+ * Сами фильтры остаются прежними: их матчеры заменяются на "любой запрос", а вызываются они напрямую.
+ * Путь сравнивается без нормализации: StrictHttpFirewall уже отклонил запросы с ;, // и ..
+ */
+public class JwtEndpointsFilter extends OncePerRequestFilter {
+
+    private final RequestJwtTokensFilter requestJwtTokensFilter;
+
+    private final BulkJwtTokensFilter bulkJwtTokensFilter;
+
+    private final RefreshTokenFilter refreshTokenFilter;
+
+    private final JwtLogoutFilter jwtLogoutFilter;
+
+    private final TokenIntrospectionFilter tokenIntrospectionFilter;
+
+    public JwtEndpointsFilter(RequestJwtTokensFilter requestJwtTokensFilter, BulkJwtTokensFilter bulkJwtTokensFilter,
+                              RefreshTokenFilter refreshTokenFilter, JwtLogoutFilter jwtLogoutFilter,
+                              TokenIntrospectionFilter tokenIntrospectionFilter) {
+        this.requestJwtTokensFilter = requestJwtTokensFilter;
+        this.bulkJwtTokensFilter = bulkJwtTokensFilter;
+        this.refreshTokenFilter = refreshTokenFilter;
+        this.jwtLogoutFilter = jwtLogoutFilter;
+        this.tokenIntrospectionFilter = tokenIntrospectionFilter;
+
+//        маршрут уже выбран здесь, повторная проверка в фильтрах не нужна
+        this.requestJwtTokensFilter.setRequestMatcher(AnyRequestMatcher.INSTANCE);
+        this.bulkJwtTokensFilter.setRequestMatcher(AnyRequestMatcher.INSTANCE);
+        this.refreshTokenFilter.setRequestMatcher(AnyRequestMatcher.INSTANCE);
+        this.jwtLogoutFilter.setRequestMatcher(AnyRequestMatcher.INSTANCE);
+        this.tokenIntrospectionFilter.setRequestMatcher(AnyRequestMatcher.INSTANCE);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (!HttpMethod.POST.matches(request.getMethod())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        switch (getPathWithinApplication(request)) {
+            case "/jwt/tokens" -> this.requestJwtTokensFilter.doFilterInternal(request, response, filterChain);
+            case "/jwt/tokens/bulk" -> this.bulkJwtTokensFilter.doFilterInternal(request, response, filterChain);
+            case "/jwt/refresh" -> this.refreshTokenFilter.doFilterInternal(request, response, filterChain);
+            case "/jwt/logout" -> this.jwtLogoutFilter.doFilterInternal(request, response, filterChain);
+            case "/jwt/introspect" -> this.tokenIntrospectionFilter.doFilterInternal(request, response, filterChain);
+            default -> filterChain.doFilter(request, response);
+        }
+    }
+
+    private static String getPathWithinApplication(HttpServletRequest request) {
+        var uri = request.getRequestURI();
+        var contextPath = request.getContextPath();
+        return contextPath.isEmpty() ? uri : uri.substring(contextPath.length());
+    }
+}
@@ -5,7 +5,6 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpMethod;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
@@ -18,13 +17,14 @@ import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
-import java.util.Date;
 
 public class JwtLogoutFilter extends OncePerRequestFilter {
 
     private RequestMatcher requestMatcher = PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/logout");
 
-    private final JdbcTemplate jdbcTemplate;
+    private final RevocationStore revocationStore;
+
+    private TwoTierCache<RefreshToken> refreshTokenCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
@@ -34,6 +34,7 @@ public class JwtLogoutFilter extends OncePerRequestFilter {
 
             if (authenticatedUser != null) {
                 deactivateRefreshToken(authenticatedUser);
+                evictRefreshToken();
                 response.setStatus(HttpServletResponse.SC_NO_CONTENT);
                 return;
             }
@@ -60,17 +61,28 @@ public class JwtLogoutFilter extends OncePerRequestFilter {
 
     private void deactivateRefreshToken(TokenUser user) {
         RefreshToken refreshToken = user.getRefreshToken();
-        this.jdbcTemplate.update(
-                "insert into t_deactivated_token (id, c_keep_until) values (?, ?)",
-                refreshToken.id(),
-                Date.from(refreshToken.expiresAt())
-        );
+        this.revocationStore.revoke(refreshToken.id(), refreshToken.expiresAt());
+    }
+    /**
+     * Убирает отозванный refresh-токен из кэша проверенных токенов на всех узлах.
+     * Строка токена - credentials аутентификации, созданной JwtAuthenticationConverter.
+     */
+    private void evictRefreshToken() {
+        if (this.refreshTokenCache != null &&
+            SecurityContextHolder.getContext().getAuthentication().getCredentials() instanceof String token) {
+            this.refreshTokenCache.invalidate(token);
+        }
     }
-    public JwtLogoutFilter(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+
+    public JwtLogoutFilter(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
     }
 
     public void setRequestMatcher(RequestMatcher requestMatcher) {
         this.requestMatcher = requestMatcher;
     }
+
+    public void setRefreshTokenCache(TwoTierCache<RefreshToken> refreshTokenCache) {
+        this.refreshTokenCache = refreshTokenCache;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package pro.akosarev.sandbox;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Подсказки для Spring AOT и GraalVM native-image.
+ *
+ * Анализ при сборке нативного образа видит только код, достижимый статически. Ниже перечислено то,
+ * что используется через рефлексию или загружается как ресурс:
+ * - записи, которые Jackson читает и пишет в эндпоинтах выдачи и интроспекции токенов;
+ * - поле userDetailsService в {@link JwtAuthenticationConfigurer}, внедряемое через @Autowired;
+ * - хранилище ключей TLS, на которое ссылается SSL bundle;
+ * - миграции профиля dev из db/dev (db/migration регистрирует автоконфигурация Flyway).
+ *
+ * Nimbus JOSE рефлексию не использует: JSON разбирается встроенным Gson в Map, а алгоритмы
+ * HMAC и AES-GCM берутся из JCA по имени, что GraalVM обрабатывает сам.
+ */
+class JwtRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        this.bindingRegistrar.registerReflectionHints(hints.reflection(), Tokens.class,
+                BulkJwtTokensFilter.BulkTokensRequest.class, BulkJwtTokensFilter.BulkTokensEntry.class,
+                TokenIntrospectionFilter.IntrospectionRequest.class, TokenIntrospectionFilter.IntrospectionResponse.class);
+
+        hints.reflection().registerType(JwtAuthenticationConfigurer.class, MemberCategory.ACCESS_DECLARED_FIELDS);
+
+        hints.resources().registerPattern("keystore.p12");
+        hints.resources().registerPattern("db/dev/*");
+    }
+}
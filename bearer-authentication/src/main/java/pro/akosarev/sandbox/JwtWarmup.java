@@ -0,0 +1,109 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Прогрев горячих путей до приема трафика.
+ *
+ * Сразу после деплоя первые тысячи запросов выполняются медленно: разбор JSON в Nimbus,
+ * провайдеры JCA, MACSigner/MACVerifier и AES-GCM еще работают в интерпретаторе или C1.
+ * Здесь сериализаторы и десериализаторы, настроенные в {@link JwtAuthenticationConfigurer},
+ * прогоняются на синтетических токенах заданное число раз или заданное время - что наступит раньше.
+ * Заодно выполняется проверка отзыва токена в {@link RevocationStore}, чтобы пул соединений
+ * и подготовленный запрос были готовы к первому Bearer-запросу.
+ *
+ * Выполняется после создания всех синглтонов, то есть до старта веб-сервера и до того,
+ * как приложение сообщит о готовности.
+ */
+public class JwtWarmup implements SmartInitializingSingleton {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwtWarmup.class);
+
+    private static final List<String> AUTHORITIES = List.of("ROLE_WARMUP", "ROLE_MANAGER");
+
+    private final JwtAuthenticationConfigurer jwtAuthenticationConfigurer;
+
+    private int iterations = 10_000;
+
+    private Duration duration = Duration.ofSeconds(5);
+
+    private int revocationQueries = 100;
+
+    public JwtWarmup(JwtAuthenticationConfigurer jwtAuthenticationConfigurer) {
+        this.jwtAuthenticationConfigurer = jwtAuthenticationConfigurer;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        var start = System.nanoTime();
+        var deadline = start + this.duration.toNanos();
+
+        var tokensIssued = 0;
+        while (tokensIssued < this.iterations && System.nanoTime() < deadline) {
+            warmUpTokens();
+            tokensIssued++;
+        }
+        var tokensNanos = System.nanoTime() - start;
+
+        var revocationStart = System.nanoTime();
+        var revocationChecks = 0;
+        // хотя бы один запрос, даже если время на токены вышло: он открывает соединение пула
+        while (revocationChecks < this.revocationQueries &&
+               (revocationChecks == 0 || System.nanoTime() < deadline)) {
+            this.jwtAuthenticationConfigurer.getRevocationStore().isRevoked(UUID.randomUUID());
+            revocationChecks++;
+        }
+        var revocationNanos = System.nanoTime() - revocationStart;
+
+        LOGGER.atInfo()
+                .addKeyValue("event", "jwt_warmup")
+                .addKeyValue("tokens", tokensIssued)
+                .addKeyValue("tokensTime", Duration.ofNanos(tokensNanos))
+                .addKeyValue("revocationChecks", revocationChecks)
+                .addKeyValue("revocationTime", Duration.ofNanos(revocationNanos))
+                .log("JWT warm-up finished: {} token pairs in {} ms, {} revocation checks in {} ms",
+                        tokensIssued, TimeUnit.NANOSECONDS.toMillis(tokensNanos),
+                        revocationChecks, TimeUnit.NANOSECONDS.toMillis(revocationNanos));
+    }
+
+    private void warmUpTokens() {
+        var configurer = this.jwtAuthenticationConfigurer;
+        var now = Instant.now();
+        var accessToken = new AccessToken(UUID.randomUUID(), "warmup", AUTHORITIES, now, now.plusSeconds(60));
+        var refreshToken = new RefreshToken(UUID.randomUUID(), "warmup", now, now.plusSeconds(60));
+
+        var accessTokenString = configurer.getAccessTokenStringSerializer().apply(accessToken);
+        var refreshTokenString = configurer.getRefreshTokenStringSerializer().apply(refreshToken);
+
+        // тот же путь, что у ответа /jwt/tokens и /jwt/refresh
+        var tokensWriter = configurer.getObjectMapper().writerFor(Tokens.class);
+        tokensWriter.writeValue(new StringWriter(), new Tokens(accessTokenString, accessToken.expiresAt().toString(),
+                refreshTokenString, refreshToken.expiresAt().toString()));
+
+        if (configurer.getAccessTokenStringDeserializer().apply(accessTokenString) == null ||
+            configurer.getRefreshTokenStringDeserializer().apply(refreshTokenString) == null) {
+            throw new IllegalStateException("Warm-up token could not be read back, check JWT keys configuration");
+        }
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public void setDuration(Duration duration) {
+        this.duration = duration;
+    }
+
+    public void setRevocationQueries(int revocationQueries) {
+        this.revocationQueries = revocationQueries;
+    }
+}
@@ -0,0 +1,232 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Необязательный движок выдачи токенов для "штормов" логинов (например, после восстановления сервиса,
+ * когда все клиенты одновременно приходят на /jwt/tokens).
+ *
+ * Подпись access-токена (JWS) и шифрование refresh-токена (JWE) выполняются одновременно
+ * на ограниченном пуле потоков, а не последовательно на потоке Tomcat.
+ *
+ * Поток Tomcat ждет результата, поэтому перед постановкой в очередь выполняется контроль допуска:
+ * - не больше maxQueueDepth выдач в работе - значение должно быть заметно меньше server.tomcat.threads.max,
+ *   тогда во время шторма остальные потоки Tomcat остаются для проверки bearer-токенов и других запросов;
+ * - очередь пула не старше maxWait - возраст самой старой ожидающей задачи (от постановки в очередь
+ *   до текущего момента) и есть измеренное ожидание, которое получит новая выдача.
+ * При отказе сразу бросается {@link TokenIssuanceRejectedException} с рекомендуемым Retry-After.
+ *
+ * Выданные и отклоненные выдачи и ожидание в очереди пула можно периодически писать в лог ({@link #setLogInterval}).
+ */
+public class ParallelTokenIssuer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelTokenIssuer.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final int maxQueueDepth;
+
+    private final long maxWaitNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder issued = new LongAdder();
+
+    private final LongAdder rejectedByDepth = new LongAdder();
+
+    private final LongAdder rejectedByWait = new LongAdder();
+
+    // от постановки задачи в очередь до начала ее выполнения
+    private final LongAdder totalQueueWaitNanos = new LongAdder();
+
+    // задач, начавших выполнение; делитель для среднего ожидания в очереди
+    private final LongAdder started = new LongAdder();
+
+    private Metrics lastLogged = new Metrics(0, 0, 0, 0, 0, Duration.ZERO);
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private final PeriodicMetricsLog metricsLog = new PeriodicMetricsLog(this::log);
+
+    public ParallelTokenIssuer(int threads, int maxQueueDepth, Duration maxWait) {
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxWaitNanos = maxWait.toNanos();
+        // на одну выдачу приходится две задачи: JWS и JWE
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueueDepth * 2),
+                Thread.ofPlatform().name("token-issuance-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public Tokens issue(AccessToken accessToken, Function<AccessToken, String> accessTokenStringSerializer,
+                        RefreshToken refreshToken, Function<RefreshToken, String> refreshTokenStringSerializer) {
+        var queued = this.inFlight.incrementAndGet();
+        try {
+            if (queued > this.maxQueueDepth) {
+                this.rejectedByDepth.increment();
+                throw new TokenIssuanceRejectedException(retryAfter(queueWaitNanos()));
+            }
+
+            var queueWaitNanos = queueWaitNanos();
+            if (queueWaitNanos > this.maxWaitNanos) {
+                this.rejectedByWait.increment();
+                throw new TokenIssuanceRejectedException(retryAfter(queueWaitNanos));
+            }
+
+            var accessTokenString = new IssuanceTask(() -> accessTokenStringSerializer.apply(accessToken));
+            var refreshTokenString = new IssuanceTask(() -> refreshTokenStringSerializer.apply(refreshToken));
+            try {
+                this.executor.execute(accessTokenString);
+                this.executor.execute(refreshTokenString);
+            } catch (RejectedExecutionException exception) {
+                this.rejectedByDepth.increment();
+                throw new TokenIssuanceRejectedException(retryAfter(queueWaitNanos));
+            }
+
+            var tokens = new Tokens(join(accessTokenString.result), accessToken.expiresAt().toString(),
+                    join(refreshTokenString.result), refreshToken.expiresAt().toString());
+            this.issued.increment();
+            return tokens;
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Сколько уже ждет самая старая задача в очереди; 0 - очередь пуста.
+     */
+    private long queueWaitNanos() {
+        if (this.executor.getQueue().peek() instanceof IssuanceTask oldest) {
+            return System.nanoTime() - oldest.submittedAt;
+        }
+
+        return 0;
+    }
+
+    private static String join(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw exception;
+        }
+    }
+
+    private static Duration retryAfter(long queueWaitNanos) {
+        // Retry-After передается в секундах, меньше секунды не имеет смысла
+        return Duration.ofSeconds(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(queueWaitNanos) + 1));
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Текущие значения счетчиков с запуска.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(this.issued.sum(), this.rejectedByDepth.sum(), this.rejectedByWait.sum(),
+                this.inFlight.get(), this.started.sum(), Duration.ofNanos(this.totalQueueWaitNanos.sum()));
+    }
+
+    /**
+     * Включает событие parallel_token_issuance в лог раз в logInterval, если за интервал были выдачи или отказы.
+     * В событии - прирост счетчиков за интервал и среднее ожидание задачи в очереди пула.
+     */
+    public void setLogInterval(Duration logInterval) {
+        this.metricsLog.start(logInterval, this.timingWheel, this.clock);
+    }
+
+    private void log() {
+        var metrics = getMetrics();
+        var last = this.lastLogged;
+        this.lastLogged = metrics;
+        var issued = metrics.issued() - last.issued();
+        var rejectedByDepth = metrics.rejectedByDepth() - last.rejectedByDepth();
+        var rejectedByWait = metrics.rejectedByWait() - last.rejectedByWait();
+        if (issued == 0 && rejectedByDepth == 0 && rejectedByWait == 0) {
+            return;
+        }
+
+        var started = metrics.startedTasks() - last.startedTasks();
+        var averageQueueWait = started == 0
+                ? Duration.ZERO
+                : metrics.totalQueueWait().minus(last.totalQueueWait()).dividedBy(started);
+        LOGGER.atInfo()
+                .addKeyValue("event", "parallel_token_issuance")
+                .addKeyValue("issued", issued)
+                .addKeyValue("rejected_by_depth", rejectedByDepth)
+                .addKeyValue("rejected_by_wait", rejectedByWait)
+                .addKeyValue("average_queue_wait_us", averageQueueWait.toNanos() / 1000)
+                .addKeyValue("in_flight", metrics.inFlight())
+                .log("Parallel issuance: {} issued, {} rejected by depth, {} by wait, average queue wait {} us",
+                        issued, rejectedByDepth, rejectedByWait, averageQueueWait.toNanos() / 1000);
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Останавливает пул и событие в лог.
+     */
+    @Override
+    public void close() {
+        this.metricsLog.close();
+        this.executor.shutdown();
+    }
+
+    /**
+     * @param startedTasks   задач JWS и JWE, начавших выполнение, - по две на выдачу
+     * @param totalQueueWait суммарное ожидание этих задач в очереди пула
+     */
+    public record Metrics(long issued, long rejectedByDepth, long rejectedByWait, int inFlight,
+                          long startedTasks, Duration totalQueueWait) {
+    }
+
+    private final class IssuanceTask implements Runnable {
+
+        private final long submittedAt = System.nanoTime();
+
+        private final Supplier<String> task;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private IssuanceTask(Supplier<String> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            totalQueueWaitNanos.add(System.nanoTime() - this.submittedAt);
+            started.increment();
+            try {
+                this.result.complete(this.task.get());
+            } catch (Throwable throwable) {
+                this.result.completeExceptionally(throwable);
+            }
+        }
+    }
+}
@@ -4,7 +4,9 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
@@ -15,8 +17,11 @@ import org.springframework.security.web.servlet.util.matcher.PathPatternRequestM
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.filter.OncePerRequestFilter;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class RefreshTokenFilter extends OncePerRequestFilter {
@@ -30,7 +35,12 @@ public class RefreshTokenFilter extends OncePerRequestFilter {
 
     private UserDetailsService userDetailsService;
 
-    private ObjectMapper objectMapper = new ObjectMapper();
+//    ответ всегда одной формы, поэтому writer для Tokens строится один раз, а не на каждый запрос
+    private ObjectWriter tokensWriter = JsonMapper.shared().writerFor(Tokens.class);
+
+    private RefreshRateLimiter refreshRateLimiter;
+
+    private RefreshRateLimiter subjectRateLimiter;
 
     public RefreshTokenFilter(UserDetailsService userDetailsService) {
         this.userDetailsService = userDetailsService;
@@ -47,6 +57,17 @@ public class RefreshTokenFilter extends OncePerRequestFilter {
             if ((authentication1 instanceof PreAuthenticatedAuthenticationToken) &&
                 authentication1.getPrincipal() instanceof TokenUser user) {
 
+                // клиент, обновляющий токен в цикле, получает 429 ещё до обращения к БД;
+                // ограничитель по имени пользователя ловит и того, кто каждый раз берет новый refresh-токен
+                if (this.refreshRateLimiter != null && user.getRefreshToken() != null &&
+                    rejectedByRateLimit(this.refreshRateLimiter.tryAcquire(user.getRefreshToken().id()), response)) {
+                    return;
+                }
+                if (this.subjectRateLimiter != null &&
+                    rejectedByRateLimit(this.subjectRateLimiter.tryAcquire(user.getUsername()), response)) {
+                    return;
+                }
+
                 // Стандартный подход: загружаем актуальные данные пользователя из БД
                 // Это позволяет учесть изменения в правах пользователя
                 var userDetails = userDetailsService.loadUserByUsername(user.getUsername());
@@ -66,7 +87,7 @@ public class RefreshTokenFilter extends OncePerRequestFilter {
 
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-                this.objectMapper.writeValue(response.getWriter(),
+                this.tokensWriter.writeValue(response.getWriter(),
                         new Tokens(this.accessTokenStringSerializer.apply(accessToken),
                                 accessToken.expiresAt().toString(), null, null));
                 return;
@@ -81,6 +102,16 @@ public class RefreshTokenFilter extends OncePerRequestFilter {
     }
 
 
+    private static boolean rejectedByRateLimit(long waitNanos, HttpServletResponse response) throws IOException {
+        if (waitNanos <= 0) {
+            return false;
+        }
+
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1));
+        response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+        return true;
+    }
+
     public void setRequestMatcher(RequestMatcher requestMatcher) {
         this.requestMatcher = requestMatcher;
     }
@@ -94,6 +125,14 @@ public class RefreshTokenFilter extends OncePerRequestFilter {
     }
 
     public void setObjectMapper(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.tokensWriter = objectMapper.writerFor(Tokens.class);
+    }
+
+    public void setRefreshRateLimiter(RefreshRateLimiter refreshRateLimiter) {
+        this.refreshRateLimiter = refreshRateLimiter;
+    }
+
+    public void setSubjectRateLimiter(RefreshRateLimiter subjectRateLimiter) {
+        this.subjectRateLimiter = subjectRateLimiter;
     }
 }
\ No newline at end of file
@@ -3,16 +3,15 @@ package pro.akosarev.sandbox;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWEDecrypter;
 import com.nimbusds.jwt.EncryptedJWT;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import pro.akosarev.sandbox.SecurityEventLogger.TokenFailureKind;
 
 import java.text.ParseException;
-import java.util.UUID;
 import java.util.function.Function;
 
 public class RefreshTokenJweStringDeserializer implements Function<String, RefreshToken> {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshTokenJweStringDeserializer.class);
+    private static final SecurityEventLogger SECURITY_EVENTS =
+            new SecurityEventLogger(RefreshTokenJweStringDeserializer.class.getSimpleName());
 
     private final JWEDecrypter jweDecrypter;
 
@@ -26,11 +25,14 @@ public class RefreshTokenJweStringDeserializer implements Function<String, Refre
             var encryptedJWT = EncryptedJWT.parse(string);
             encryptedJWT.decrypt(this.jweDecrypter);
             var claimsSet = encryptedJWT.getJWTClaimsSet();
-            return new RefreshToken(UUID.fromString(claimsSet.getJWTID()), claimsSet.getSubject(),
-                    claimsSet.getIssueTime().toInstant(),
-                    claimsSet.getExpirationTime().toInstant());
-        } catch (ParseException | JOSEException exception) {
-            LOGGER.error(exception.getMessage(), exception);
+            var jti = claimsSet.getJWTID();
+            return new RefreshToken(TokenIds.mostSigBits(jti), TokenIds.leastSigBits(jti), claimsSet.getSubject(),
+                    claimsSet.getIssueTime().getTime() / 1000,
+                    claimsSet.getExpirationTime().getTime() / 1000);
+        } catch (ParseException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.MALFORMED, exception);
+        } catch (JOSEException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.DECRYPTION_FAILED, exception);
         }
 
         return null;
@@ -4,9 +4,11 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
@@ -16,6 +18,8 @@ import org.springframework.security.web.servlet.util.matcher.PathPatternRequestM
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.filter.OncePerRequestFilter;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.json.JsonMapper;
 
 import java.io.IOException;
 import java.util.function.Function;
@@ -45,7 +49,11 @@ public class RequestJwtTokensFilter extends OncePerRequestFilter {
 
     private Function<AccessToken, String> accessTokenStringSerializer = Object::toString;
 
-    private ObjectMapper objectMapper = new ObjectMapper();
+//    ответ всегда одной формы, поэтому writer для Tokens строится один раз, а не на каждый запрос
+    private ObjectWriter tokensWriter = JsonMapper.shared().writerFor(Tokens.class);
+
+//    необязательный пул для параллельной подписи/шифрования с контролем допуска
+    private ParallelTokenIssuer parallelTokenIssuer;
 
 
     @Override
@@ -55,21 +63,39 @@ public class RequestJwtTokensFilter extends OncePerRequestFilter {
             // ✅ ДОБАВЛЕНО - правильный способ получения контекста
             var context = SecurityContextHolder.getContext();
             Authentication authentication = context.getAuthentication();
-            // Проверяем, что пользователь аутентифицирован через Basic Auth (не через JWT)
-                if (context != null &&
+            // Проверяем, что пользователь аутентифицирован через Basic Auth (не через JWT и не анонимно)
+                if (authentication != null &&
                     authentication.isAuthenticated() &&
+                    !(authentication instanceof AnonymousAuthenticationToken) &&
                     !(context.getAuthentication() instanceof PreAuthenticatedAuthenticationToken)) {
                     // Стандартный подход: оба токена создаются из Authentication
                     var refreshToken = this.refreshTokenFactory.apply(context.getAuthentication());
                     var accessToken = this.accessTokenFactory.apply(context.getAuthentication());
 
+                    Tokens tokens;
+                    if (this.parallelTokenIssuer != null) {
+                        try {
+                            // JWS и JWE считаются одновременно на отдельном ограниченном пуле
+                            tokens = this.parallelTokenIssuer.issue(accessToken, this.accessTokenStringSerializer,
+                                    refreshToken, this.refreshTokenStringSerializer);
+                        } catch (TokenIssuanceRejectedException exception) {
+                            // пул перегружен: быстро отказываем, не занимая поток Tomcat ожиданием
+                            response.setHeader(HttpHeaders.RETRY_AFTER,
+                                    Long.toString(exception.getRetryAfter().toSeconds()));
+                            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                            return;
+                        }
+                    } else {
+                        tokens = new Tokens(this.accessTokenStringSerializer.apply(accessToken),
+                                accessToken.expiresAt().toString(),
+                                this.refreshTokenStringSerializer.apply(refreshToken),
+                                refreshToken.expiresAt().toString());
+                    }
+
                     response.setStatus(HttpServletResponse.SC_OK);
                     response.setContentType(MediaType.APPLICATION_JSON_VALUE);
-                    this.objectMapper.writeValue(response.getWriter(),
-                            new Tokens(this.accessTokenStringSerializer.apply(accessToken),
-                                    accessToken.expiresAt().toString(),
-                                    this.refreshTokenStringSerializer.apply(refreshToken),
-                                    refreshToken.expiresAt().toString()));
+//                    через Writer ответа, а не готовыми байтами: замер в token-response-writer-benchmark.md
+                    this.tokensWriter.writeValue(response.getWriter(), tokens);
                     return;
                 }
 
@@ -101,6 +127,10 @@ public class RequestJwtTokensFilter extends OncePerRequestFilter {
     }
 
     public void setObjectMapper(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.tokensWriter = objectMapper.writerFor(Tokens.class);
+    }
+
+    public void setParallelTokenIssuer(ParallelTokenIssuer parallelTokenIssuer) {
+        this.parallelTokenIssuer = parallelTokenIssuer;
     }
 }
\ No newline at end of file
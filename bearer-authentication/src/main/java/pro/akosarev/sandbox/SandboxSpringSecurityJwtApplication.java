@@ -1,28 +1,39 @@
 package pro.akosarev.sandbox;
 
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.crypto.DirectDecrypter;
-import com.nimbusds.jose.crypto.DirectEncrypter;
 import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.crypto.MACVerifier;
 import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.zaxxer.hikari.HikariConfig;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBooleanProperty;
+import org.springframework.boot.flyway.autoconfigure.FlywayMigrationStrategy;
+import org.springframework.boot.jdbc.autoconfigure.JdbcConnectionDetails;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.SecurityFilterChain;
+import tools.jackson.databind.json.JsonMapper;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.time.Duration;
 
 @SpringBootApplication
+@ImportRuntimeHints(JwtRuntimeHints.class)
 public class SandboxSpringSecurityJwtApplication {
 
     public static void main(String[] args) {
@@ -33,22 +44,274 @@ public class SandboxSpringSecurityJwtApplication {
     public JwtAuthenticationConfigurer jwtAuthenticationConfigurer(
             @Value("${jwt.access-token-key}") String accessTokenKey,
             @Value("${jwt.refresh-token-key}") String refreshTokenKey,
-            JdbcTemplate jdbcTemplate
+            @Value("${jwt.refresh.rate-limit.period}") Duration refreshRateLimitPeriod,
+            @Value("${jwt.refresh.rate-limit.burst}") int refreshRateLimitBurst,
+            @Value("${jwt.refresh.rate-limit.capacity}") int refreshRateLimitCapacity,
+            @Value("${jwt.refresh.rate-limit.subject.period}") Duration subjectRateLimitPeriod,
+            @Value("${jwt.refresh.rate-limit.subject.burst}") int subjectRateLimitBurst,
+            JdbcTemplate jdbcTemplate,
+            JsonMapper jsonMapper,
+            ObjectProvider<ParallelTokenIssuer> parallelTokenIssuer,
+            BulkTokenIssuancePool bulkTokenIssuancePool,
+            RevocationStore revocationStore,
+            @Value("${jwt.cache.user-ttl}") Duration userTtl,
+            ObjectProvider<TwoTierCache<AccessToken>> accessTokenCache,
+            ObjectProvider<TwoTierCache<RefreshToken>> refreshTokenCache,
+            ObjectProvider<TwoTierCache<UserDetails>> userDetailsCache
     ) throws ParseException, JOSEException {
-        return new JwtAuthenticationConfigurer()
+        var jwtAuthenticationConfigurer = new JwtAuthenticationConfigurer();
+//        кэши создаются бинами ниже, только при jwt.cache.enabled
+        userDetailsCache.ifAvailable(cache ->
+                jwtAuthenticationConfigurer.userCache(new TwoTierUserCache(cache, userTtl)));
+
+        return jwtAuthenticationConfigurer
+                .accessTokenCache(accessTokenCache.getIfAvailable())
+                .refreshTokenCache(refreshTokenCache.getIfAvailable())
                 .accessTokenStringSerializer(new AccessTokenJwsStringSerializer(
                         new MACSigner(OctetSequenceKey.parse(accessTokenKey))
                 ))
+//                шифры AES-GCM берутся из пула, а не создаются на каждый токен
                 .refreshTokenStringSerializer(new RefreshTokenJweStringSerializer(
-                        new DirectEncrypter(OctetSequenceKey.parse(refreshTokenKey))
+                        new PooledDirectEncrypter(OctetSequenceKey.parse(refreshTokenKey))
                 ))
                 .accessTokenStringDeserializer(new AccessTokenJwsStringDeserializer(
                         new MACVerifier(OctetSequenceKey.parse(accessTokenKey))
                 ))
                 .refreshTokenStringDeserializer(new RefreshTokenJweStringDeserializer(
-                        new DirectDecrypter(OctetSequenceKey.parse(refreshTokenKey))
+                        new PooledDirectDecrypter(OctetSequenceKey.parse(refreshTokenKey))
                 ))
-                .jdbcTemplate(jdbcTemplate);
+                .jdbcTemplate(jdbcTemplate)
+//                маппер, настроенный Spring Boot, общий для всех эндпоинтов выдачи токенов
+                .objectMapper(jsonMapper)
+                .parallelTokenIssuer(parallelTokenIssuer.getIfAvailable())
+//                пакетная выдача подписывает на своем ограниченном пуле, а не на общем ForkJoinPool
+                .bulkTokenIssuancePool(bulkTokenIssuancePool)
+//                429 + Retry-After для клиентов, обновляющих токен в цикле
+                .refreshRateLimiter(new RefreshRateLimiter(refreshRateLimitPeriod, refreshRateLimitBurst,
+                        refreshRateLimitCapacity))
+//                и на пользователя по всем его refresh-токенам - новый токен на каждый вызов не обходит лимит
+                .subjectRateLimiter(new RefreshRateLimiter(subjectRateLimitPeriod, subjectRateLimitBurst,
+                        refreshRateLimitCapacity))
+                .revocationStore(revocationStore);
+    }
+
+    /**
+     * Кэши проверенных токенов и пользователей /jwt/refresh включаются свойством jwt.cache.enabled.
+     * Общий уровень - бин SharedCacheTier нужного типа (например, на Redis); без него кэш только локальный.
+     * Бинами они нужны, чтобы Spring остановил событие метрик в лог при закрытии контекста.
+     */
+    @Bean
+    @ConditionalOnBooleanProperty("jwt.cache.enabled")
+    public TwoTierCache<AccessToken> accessTokenCache(
+            ObjectProvider<SharedCacheTier<AccessToken>> sharedTier,
+            @Value("${jwt.cache.local-size}") int localSize,
+            @Value("${jwt.cache.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        return twoTierCache("access-token", sharedTier.getIfAvailable(), localSize, metricsLogInterval);
+    }
+
+    @Bean
+    @ConditionalOnBooleanProperty("jwt.cache.enabled")
+    public TwoTierCache<RefreshToken> refreshTokenCache(
+            ObjectProvider<SharedCacheTier<RefreshToken>> sharedTier,
+            @Value("${jwt.cache.local-size}") int localSize,
+            @Value("${jwt.cache.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        return twoTierCache("refresh-token", sharedTier.getIfAvailable(), localSize, metricsLogInterval);
+    }
+
+    @Bean
+    @ConditionalOnBooleanProperty("jwt.cache.enabled")
+    public TwoTierCache<UserDetails> userDetailsCache(
+            ObjectProvider<SharedCacheTier<UserDetails>> sharedTier,
+            @Value("${jwt.cache.local-size}") int localSize,
+            @Value("${jwt.cache.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        return twoTierCache("user", sharedTier.getIfAvailable(), localSize, metricsLogInterval);
+    }
+
+    private static <V> TwoTierCache<V> twoTierCache(String name, SharedCacheTier<V> sharedTier, int localSize,
+                                                    Duration metricsLogInterval) {
+        var cache = new TwoTierCache<>(sharedTier, localSize);
+        cache.setName(name);
+        if (metricsLogInterval.isPositive()) {
+            cache.setLogInterval(metricsLogInterval);
+        }
+        return cache;
+    }
+
+//    включается свойством jwt.issuance.parallel.enabled
+    @Bean
+    @ConditionalOnBooleanProperty("jwt.issuance.parallel.enabled")
+    public ParallelTokenIssuer parallelTokenIssuer(
+            @Value("${jwt.issuance.parallel.threads}") int threads,
+            @Value("${jwt.issuance.parallel.max-queue-depth}") int maxQueueDepth,
+            @Value("${jwt.issuance.parallel.max-wait}") Duration maxWait,
+            @Value("${jwt.issuance.parallel.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        var parallelTokenIssuer = new ParallelTokenIssuer(threads, maxQueueDepth, maxWait);
+        if (metricsLogInterval.isPositive()) {
+            parallelTokenIssuer.setLogInterval(metricsLogInterval);
+        }
+        return parallelTokenIssuer;
+    }
+
+    @Bean
+    public BulkTokenIssuancePool bulkTokenIssuancePool(
+            @Value("${jwt.issuance.bulk.threads}") int threads,
+            @Value("${jwt.issuance.bulk.queue-capacity}") int queueCapacity
+    ) {
+        return new BulkTokenIssuancePool(threads, queueCapacity);
+    }
+
+    /**
+     * Хранилище отозванных токенов выбирается свойством jwt.revocation.store:
+     * jdbc - БД через пулы подсистемы токенов, memory - только этот процесс, file - журнал в каталоге на диске для одного узла без БД.
+     * Для медленных хранилищ одновременные проверки можно объединять (jwt.revocation.batching.enabled).
+     */
+    @Bean
+    public RevocationStore revocationStore(
+            TokenDataSources tokenDataSources,
+            @Value("${jwt.revocation.store}") String store,
+            @Value("${jwt.revocation.jdbc.purge-interval}") Duration purgeInterval,
+            @Value("${jwt.revocation.file.path}") Path file,
+            @Value("${jwt.revocation.file.segment-duration}") Duration segmentDuration,
+            @Value("${jwt.revocation.file.sync}") boolean sync,
+            @Value("${jwt.revocation.batching.enabled}") boolean batching,
+            @Value("${jwt.revocation.batching.batch-size}") int batchSize,
+            @Value("${jwt.revocation.batching.window}") Duration window,
+            @Value("${jwt.revocation.batching.max-wait}") Duration maxWait,
+            @Value("${jwt.revocation.batching.dispatchers}") int dispatchers
+    ) throws IOException {
+        RevocationStore revocationStore = switch (store) {
+            case "jdbc" -> {
+                var jdbcRevocationStore = new JdbcRevocationStore(tokenDataSources);
+                jdbcRevocationStore.setPurgeInterval(purgeInterval);
+                yield jdbcRevocationStore;
+            }
+            case "memory" -> new InMemoryRevocationStore();
+            case "file" -> {
+                var mappedFileRevocationStore = new MappedFileRevocationStore(file, segmentDuration, 4 * 1024);
+                mappedFileRevocationStore.setSync(sync);
+                yield mappedFileRevocationStore;
+            }
+            default -> throw new IllegalArgumentException("Unknown jwt.revocation.store: " + store);
+        };
+
+        return batching
+                ? new BatchingRevocationStore(revocationStore, batchSize, window, maxWait, dispatchers)
+                : revocationStore;
+    }
+
+    /**
+     * Пулы соединений подсистемы токенов: проверки отзыва не ждут соединения за запросами к таблицам
+     * пользователей в основном пуле. По умолчанию - та же БД, что и spring.datasource;
+     * jwt.datasource.replica.url уводит чтение t_deactivated_token на реплику.
+     */
+    @Bean
+    public TokenDataSources tokenDataSources(
+            JdbcConnectionDetails connectionDetails,
+            @Value("${jwt.datasource.url:}") String url,
+            @Value("${jwt.datasource.username:}") String username,
+            @Value("${jwt.datasource.password:}") String password,
+            @Value("${jwt.datasource.pool-size}") int poolSize,
+            @Value("${jwt.datasource.connection-timeout}") Duration connectionTimeout,
+            @Value("${jwt.datasource.prepare-threshold}") int prepareThreshold,
+            @Value("${jwt.datasource.statement-cache-queries}") int statementCacheQueries,
+            @Value("${jwt.datasource.replica.url:}") String replicaUrl,
+            @Value("${jwt.datasource.replica.pool-size}") int replicaPoolSize,
+            @Value("${jwt.datasource.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        var config = tokenPoolConfig("token-pool", connectionDetails,
+                url.isEmpty() ? connectionDetails.getJdbcUrl() : url,
+                username.isEmpty() ? connectionDetails.getUsername() : username,
+                password.isEmpty() ? connectionDetails.getPassword() : password,
+                poolSize, connectionTimeout);
+        TokenDataSources.configureStatementCache(config, prepareThreshold, statementCacheQueries);
+
+        HikariConfig replicaConfig = null;
+        if (!replicaUrl.isEmpty()) {
+            replicaConfig = tokenPoolConfig("token-replica-pool", connectionDetails, replicaUrl,
+                    config.getUsername(), config.getPassword(), replicaPoolSize, connectionTimeout);
+            TokenDataSources.configureStatementCache(replicaConfig, prepareThreshold, statementCacheQueries);
+        }
+
+        var tokenDataSources = new TokenDataSources(config, replicaConfig);
+        if (metricsLogInterval.isPositive()) {
+            tokenDataSources.getPoolWaitMetrics().setLogInterval(metricsLogInterval);
+        }
+        return tokenDataSources;
+    }
+
+    private static HikariConfig tokenPoolConfig(String poolName, JdbcConnectionDetails connectionDetails, String url,
+                                                String username, String password, int poolSize,
+                                                Duration connectionTimeout) {
+        var config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setDriverClassName(connectionDetails.getDriverClassName());
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+//        пул постоянного размера: соединения не закрываются и не открываются заново под нагрузкой
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(poolSize);
+//        проверка отзыва лучше быстро упадет, чем будет долго держать поток запроса
+        config.setConnectionTimeout(connectionTimeout.toMillis());
+        return config;
+    }
+
+    /**
+     * Миграции Flyway при старте можно отключить свойством schema.migrate-on-startup: с AOT условие
+     * spring.flyway.enabled фиксируется при сборке, а тренировочному запуску CDS база недоступна.
+     */
+    @Bean
+    public FlywayMigrationStrategy flywayMigrationStrategy(
+            @Value("${schema.migrate-on-startup}") boolean migrateOnStartup
+    ) {
+        return flyway -> {
+            if (migrateOnStartup) {
+                flyway.migrate();
+            }
+        };
+    }
+
+//    включается свойством jwt.warmup.enabled
+    @Bean
+    @ConditionalOnBooleanProperty("jwt.warmup.enabled")
+    public JwtWarmup jwtWarmup(
+            JwtAuthenticationConfigurer jwtAuthenticationConfigurer,
+            @Value("${jwt.warmup.iterations}") int iterations,
+            @Value("${jwt.warmup.duration}") Duration duration,
+            @Value("${jwt.warmup.revocation-queries}") int revocationQueries
+    ) {
+        var jwtWarmup = new JwtWarmup(jwtAuthenticationConfigurer);
+        jwtWarmup.setIterations(iterations);
+        jwtWarmup.setDuration(duration);
+        jwtWarmup.setRevocationQueries(revocationQueries);
+        return jwtWarmup;
+    }
+
+//    включается свойством transport.tuning.enabled (профиль prod)
+    @Bean
+    @ConditionalOnBooleanProperty("transport.tuning.enabled")
+    public TomcatTransportCustomizer tomcatTransportCustomizer(
+            @Value("${transport.tuning.ssl-implementation}") String sslImplementation,
+            @Value("${transport.tuning.session-cache-size}") int sessionCacheSize,
+            @Value("${transport.tuning.session-timeout}") Duration sessionTimeout,
+            @Value("${transport.tuning.max-concurrent-streams}") int maxConcurrentStreams,
+            @Value("${transport.tuning.max-concurrent-stream-execution}") int maxConcurrentStreamExecution,
+            @Value("${transport.tuning.keep-alive-timeout}") Duration keepAliveTimeout,
+            @Value("${transport.tuning.max-keep-alive-requests}") int maxKeepAliveRequests
+    ) {
+        var tomcatTransportCustomizer = new TomcatTransportCustomizer();
+        tomcatTransportCustomizer.setSslImplementation(sslImplementation);
+        tomcatTransportCustomizer.setSessionCacheSize(sessionCacheSize);
+        tomcatTransportCustomizer.setSessionTimeout(sessionTimeout);
+        tomcatTransportCustomizer.setMaxConcurrentStreams(maxConcurrentStreams);
+        tomcatTransportCustomizer.setMaxConcurrentStreamExecution(maxConcurrentStreamExecution);
+        tomcatTransportCustomizer.setKeepAliveTimeout(keepAliveTimeout);
+        tomcatTransportCustomizer.setMaxKeepAliveRequests(maxKeepAliveRequests);
+        return tomcatTransportCustomizer;
     }
 
     @Bean
@@ -69,6 +332,33 @@ public class SandboxSpringSecurityJwtApplication {
                 .build();
     }
 
+    /**
+     * Проверка паролей httpBasic/formLogin на отдельном ограниченном пуле с лимитами
+     * одновременных входов на пользователя и на IP-адрес.
+     * Единственный бин AuthenticationProvider: Spring Security использует его вместо
+     * DaoAuthenticationProvider, который иначе создал бы сам из UserDetailsService.
+     */
+    @Bean
+    public LoginThrottlingAuthenticationProvider loginThrottlingAuthenticationProvider(
+            UserDetailsService userDetailsService,
+            @Value("${login.threads}") int threads,
+            @Value("${login.queue-capacity}") int queueCapacity,
+            @Value("${login.max-concurrent-per-username}") int maxConcurrentPerUsername,
+            @Value("${login.max-concurrent-per-address}") int maxConcurrentPerAddress,
+            @Value("${login.timeout}") Duration timeout,
+            @Value("${login.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        var authenticationProvider = new LoginThrottlingAuthenticationProvider(
+                new DaoAuthenticationProvider(userDetailsService), threads, queueCapacity);
+        authenticationProvider.setUsernameLimiter(new StripedConcurrencyLimiter(1024, maxConcurrentPerUsername));
+        authenticationProvider.setRemoteAddressLimiter(new StripedConcurrencyLimiter(1024, maxConcurrentPerAddress));
+        authenticationProvider.setTimeout(timeout);
+        if (metricsLogInterval.isPositive()) {
+            authenticationProvider.setLogInterval(metricsLogInterval);
+        }
+        return authenticationProvider;
+    }
+
     @Bean
     public UserDetailsService userDetailsService(JdbcTemplate jdbcTemplate) {
         return username -> jdbcTemplate.query("select * from t_user where c_username = ?",
@@ -0,0 +1,239 @@
+package pro.akosarev.sandbox;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import tools.jackson.core.JacksonException;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Интроспекция access-токенов для сервисов, у которых нет ключа HMAC: POST /jwt/introspect
+ *
+ * Формат ответа - как в RFC 7662: {"active": true, "sub": ..., "scope": ..., "exp": ...}
+ * или {"active": false} без подробностей о причине.
+ *
+ * Два режима:
+ * - одиночный, как в RFC: application/x-www-form-urlencoded с параметром token, ответ - один объект;
+ * - пакетный: JSON {"tokens": ["...", ...]}, ответ - массив объектов в том же порядке.
+ * В пакетном режиме подписи проверяются в памяти, а отзыв всех токенов проверяется одним
+ * обращением к {@link RevocationStore#findRevoked} (для JDBC - запрос id = any(?)), поэтому шлюз может проверить тысячи токенов за один вызов.
+ *
+ * Ответ кешируемый: max-age не превышает ни оставшегося времени жизни самого короткого
+ * активного токена, ни {@code maxCacheAge} - чтобы отзыв токена был виден клиентам не позже этого срока.
+ * max-age округляется вниз до {@code cacheAgeStep}: по HTTP/2 повторяющееся значение заголовка
+ * передается ссылкой на таблицу HPACK, а посекундно разные значения каждый раз занимают в ней новую запись.
+ */
+public class TokenIntrospectionFilter extends OncePerRequestFilter {
+
+    private static final IntrospectionResponse INACTIVE = new IntrospectionResponse(false, null, null, null,
+            null, null, null);
+
+    private RequestMatcher requestMatcher = PathPatternRequestMatcher.pathPattern(HttpMethod.POST, "/jwt/introspect");
+
+    private final RevocationStore revocationStore;
+
+    private Function<String, AccessToken> accessTokenStringDeserializer;
+
+    private ObjectMapper objectMapper = JsonMapper.shared();
+
+//    право, без которого интроспекция запрещена
+    private String requiredAuthority = "ROLE_TOKEN_INTROSPECTOR";
+
+    private int maxTokens = 1000;
+
+    private Duration maxCacheAge = Duration.ofSeconds(30);
+
+    private Duration cacheAgeStep = Duration.ofSeconds(5);
+
+    private Clock clock = CachedClock.getDefault();
+
+    public TokenIntrospectionFilter(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (!this.requestMatcher.matches(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        var authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated() || !hasRequiredAuthority(authentication)) {
+            throw new AccessDeniedException("User must be authenticated with %s".formatted(this.requiredAuthority));
+        }
+
+        List<String> tokens;
+        boolean singleToken;
+        try {
+            singleToken = MediaType.APPLICATION_FORM_URLENCODED.includes(parseContentType(request));
+        } catch (InvalidMediaTypeException exception) {
+            // битый Content-Type - ошибка клиента, как и битый JSON
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        if (singleToken) {
+            var token = request.getParameter("token");
+            tokens = token == null ? List.of() : List.of(token);
+        } else {
+            try {
+                tokens = this.objectMapper.readValue(request.getInputStream(), IntrospectionRequest.class).tokens();
+            } catch (JacksonException exception) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+        }
+
+        if (tokens == null || tokens.isEmpty() || tokens.size() > this.maxTokens) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        var now = this.clock.millis();
+        var accessTokens = new ArrayList<AccessToken>(tokens.size());
+        // UUID собирается один раз на токен - для пакетного запроса, проверки по его результату и поля jti
+        var tokenIds = new ArrayList<UUID>(tokens.size());
+        var ids = new ArrayList<UUID>(tokens.size());
+        for (var token : tokens) {
+            var accessToken = token == null ? null : this.accessTokenStringDeserializer.apply(token);
+            if (accessToken != null && accessToken.expiresAtEpochSecond() * 1000 <= now) {
+                accessToken = null;
+            }
+            accessTokens.add(accessToken);
+            if (accessToken != null) {
+                var tokenId = new UUID(accessToken.idMostSigBits(), accessToken.idLeastSigBits());
+                tokenIds.add(tokenId);
+                ids.add(tokenId);
+            } else {
+                tokenIds.add(null);
+            }
+        }
+
+        // один запрос на весь пакет (для JDBC - id = any(?))
+        var revoked = ids.isEmpty() ? Set.<UUID>of() : this.revocationStore.findRevoked(ids);
+        var results = new ArrayList<IntrospectionResponse>(tokens.size());
+        var maxAgeSeconds = this.maxCacheAge.toSeconds();
+        for (var i = 0; i < accessTokens.size(); i++) {
+            var accessToken = accessTokens.get(i);
+            var tokenId = tokenIds.get(i);
+            if (accessToken == null || revoked.contains(tokenId)) {
+                results.add(INACTIVE);
+            } else {
+                results.add(IntrospectionResponse.active(accessToken, tokenId));
+                maxAgeSeconds = Math.min(maxAgeSeconds, (accessToken.expiresAtEpochSecond() * 1000 - now) / 1000);
+            }
+        }
+
+        var body = singleToken
+                ? this.objectMapper.writeValueAsBytes(results.getFirst())
+                : this.objectMapper.writeValueAsBytes(results);
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        var step = Math.max(1, this.cacheAgeStep.toSeconds());
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(Duration.ofSeconds(Math.max(0, maxAgeSeconds) / step * step))
+                        .cachePrivate().getHeaderValue());
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static MediaType parseContentType(HttpServletRequest request) {
+        var contentType = request.getContentType();
+        return contentType == null ? MediaType.APPLICATION_JSON : MediaType.parseMediaType(contentType);
+    }
+
+    private boolean hasRequiredAuthority(Authentication authentication) {
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            if (this.requiredAuthority.equals(authority.getAuthority())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public void setRequestMatcher(RequestMatcher requestMatcher) {
+        this.requestMatcher = requestMatcher;
+    }
+
+    public void setAccessTokenStringDeserializer(Function<String, AccessToken> accessTokenStringDeserializer) {
+        this.accessTokenStringDeserializer = accessTokenStringDeserializer;
+    }
+
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void setRequiredAuthority(String requiredAuthority) {
+        this.requiredAuthority = requiredAuthority;
+    }
+
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public void setMaxCacheAge(Duration maxCacheAge) {
+        this.maxCacheAge = maxCacheAge;
+    }
+
+    public void setCacheAgeStep(Duration cacheAgeStep) {
+        this.cacheAgeStep = cacheAgeStep;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Тело пакетного запроса
+     */
+    public record IntrospectionRequest(List<String> tokens) {
+    }
+
+    /**
+     * Ответ интроспекции в терминах RFC 7662; у неактивного токена есть только поле active
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record IntrospectionResponse(boolean active,
+                                        String sub,
+                                        String jti,
+                                        String scope,
+                                        Long iat,
+                                        Long exp,
+                                        @JsonProperty("token_type") String tokenType) {
+
+        static IntrospectionResponse active(AccessToken accessToken, UUID tokenId) {
+            return new IntrospectionResponse(true, accessToken.subject(), tokenId.toString(),
+                    String.join(" ", accessToken.authorities()), accessToken.createdAtEpochSecond(),
+                    accessToken.expiresAtEpochSecond(), "Bearer");
+        }
+    }
+}
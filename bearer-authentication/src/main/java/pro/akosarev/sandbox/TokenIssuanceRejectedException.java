@@ -0,0 +1,21 @@
+package pro.akosarev.sandbox;
+
+import java.time.Duration;
+
+/**
+ * Выдача токенов отклонена контролем допуска {@link ParallelTokenIssuer}.
+ * Клиенту отвечаем 503 с заголовком Retry-After.
+ */
+public class TokenIssuanceRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public TokenIssuanceRejectedException(Duration retryAfter) {
+        super("Token issuance is overloaded, retry after %d s".formatted(retryAfter.toSeconds()));
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
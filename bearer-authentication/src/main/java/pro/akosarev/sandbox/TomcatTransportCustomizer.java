@@ -0,0 +1,127 @@
+package pro.akosarev.sandbox;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.AprLifecycleListener;
+import org.apache.coyote.http11.AbstractHttp11Protocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.net.jsse.JSSEImplementation;
+import org.apache.tomcat.util.net.openssl.OpenSSLImplementation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.tomcat.servlet.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+
+import java.time.Duration;
+
+/**
+ * Настройки TLS и HTTP/2 коннектора Tomcat для короткой работы с токенами: запрос и ответ - сотни байт,
+ * поэтому цену запроса определяют рукопожатие TLS и накладные расходы соединения, а не передача тела.
+ *
+ * - Возобновление сессий TLS: кэш сессий на сервере и session tickets, чтобы повторное
+ * подключение клиента обходилось без полного рукопожатия с операциями над закрытым ключом.
+ * - Реализация TLS: OpenSSL через tcnative, если библиотека установлена, иначе JSSE
+ * ({@code sslImplementation}: auto | openssl | jsse).
+ * - HTTP/2: больше одновременных потоков на соединение и более долгий keep-alive - клиент держит
+ * одно соединение и не платит за рукопожатие на каждый запрос.
+ * - HTTP/1.1: keep-alive без ограничения числа запросов на соединение.
+ *
+ * Протоколы TLS задаются не здесь, а в параметрах SSL bundle (spring.ssl.bundle...options).
+ */
+public class TomcatTransportCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TomcatTransportCustomizer.class);
+
+    private String sslImplementation = "auto";
+
+    private int sessionCacheSize = 20480;
+
+    private Duration sessionTimeout = Duration.ofHours(1);
+
+    private int maxConcurrentStreams = 128;
+
+    private int maxConcurrentStreamExecution = 32;
+
+    private Duration keepAliveTimeout = Duration.ofSeconds(60);
+
+    private int maxKeepAliveRequests = -1;
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        var openSsl = switch (this.sslImplementation) {
+            case "auto" -> isOpenSslAvailable();
+            case "openssl" -> {
+                if (!isOpenSslAvailable()) {
+                    throw new IllegalStateException("Tomcat Native library (tcnative) is not available");
+                }
+                yield true;
+            }
+            case "jsse" -> false;
+            default -> throw new IllegalArgumentException("Unknown SSL implementation: " + this.sslImplementation);
+        };
+        LOGGER.info("Using {} for TLS", openSsl ? "OpenSSL (tcnative)" : "JSSE");
+
+//        библиотеку инициализирует AprLifecycleListener сервера
+        factory.setUseApr(openSsl);
+        factory.addConnectorCustomizers(connector -> customizeConnector(connector, openSsl));
+    }
+
+    private static boolean isOpenSslAvailable() {
+//        isAprAvailable загружает библиотеку, только если создан хотя бы один экземпляр слушателя
+        new AprLifecycleListener();
+        return AprLifecycleListener.isAprAvailable();
+    }
+
+    private void customizeConnector(Connector connector, boolean openSsl) {
+        if (connector.getProtocolHandler() instanceof AbstractHttp11Protocol<?> protocol) {
+            protocol.setKeepAliveTimeout((int) this.keepAliveTimeout.toMillis());
+            protocol.setMaxKeepAliveRequests(this.maxKeepAliveRequests);
+
+            if (protocol.isSSLEnabled()) {
+                protocol.setSslImplementationName(openSsl
+                        ? OpenSSLImplementation.class.getName()
+                        : JSSEImplementation.class.getName());
+                for (var sslHostConfig : protocol.findSslHostConfigs()) {
+                    sslHostConfig.setSessionCacheSize(this.sessionCacheSize);
+                    sslHostConfig.setSessionTimeout((int) this.sessionTimeout.toSeconds());
+                    sslHostConfig.setDisableSessionTickets(false);
+                }
+            }
+        }
+
+        for (var upgradeProtocol : connector.findUpgradeProtocols()) {
+            if (upgradeProtocol instanceof Http2Protocol http2Protocol) {
+                http2Protocol.setMaxConcurrentStreams(this.maxConcurrentStreams);
+                http2Protocol.setMaxConcurrentStreamExecution(this.maxConcurrentStreamExecution);
+                http2Protocol.setKeepAliveTimeout(this.keepAliveTimeout.toMillis());
+            }
+        }
+    }
+
+    public void setSslImplementation(String sslImplementation) {
+        this.sslImplementation = sslImplementation;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public void setSessionTimeout(Duration sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    public void setMaxConcurrentStreamExecution(int maxConcurrentStreamExecution) {
+        this.maxConcurrentStreamExecution = maxConcurrentStreamExecution;
+    }
+
+    public void setKeepAliveTimeout(Duration keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+}
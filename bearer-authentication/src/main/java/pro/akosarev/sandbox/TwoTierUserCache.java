@@ -0,0 +1,56 @@
+package pro.akosarev.sandbox;
+
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * {@link UserCache} поверх {@link TwoTierCache} для {@code CachingUserDetailsService} в /jwt/refresh:
+ * обновление access-токена читает права пользователя, а не проверяет пароль, поэтому пользователь
+ * загружается из БД не чаще раза в {@code timeToLive} на весь кластер.
+ *
+ * Пароль в кэш не попадает (ни локально, ни в общий уровень) - кэш не годится для проверки пароля при входе.
+ * При изменении прав пользователя нужно вызвать {@link #removeUserFromCache(String)}:
+ * сообщение об инвалидации уберет пользователя и с остальных узлов. Без этого новые права
+ * вступают в силу не позже чем через {@code timeToLive} после загрузки из БД.
+ */
+public class TwoTierUserCache implements UserCache {
+
+    private final TwoTierCache<UserDetails> cache;
+
+    private final Duration timeToLive;
+
+    private Clock clock = CachedClock.getDefault();
+
+    public TwoTierUserCache(TwoTierCache<UserDetails> cache, Duration timeToLive) {
+        this.cache = cache;
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        return this.cache.get(username);
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        var withoutPassword = User.withUserDetails(user)
+                .password("")
+                .build();
+        // CachingUserDetailsService вызывает этот метод и после попадания в кэш: срок не продлевается
+        this.cache.putIfAbsent(user.getUsername(), withoutPassword,
+                (this.clock.millis() + this.timeToLive.toMillis()) / 1000);
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        this.cache.invalidate(username);
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
@@ -0,0 +1,21 @@
+-- сервисные учетные записи с паролем password - только для локального запуска (профиль dev),
+-- в остальных окружениях их заводят вручную со своими паролями
+-- (см. раздел "Сервисные учетные записи" в readme.md)
+
+-- пакетная выдача токенов (/jwt/tokens/bulk)
+insert into t_user(id, c_username, c_password)
+values (2, 'batch.service', '{noop}password')
+on conflict do nothing;
+
+insert into t_user_authority(id_user, c_authority)
+select 2, 'ROLE_TOKEN_ISSUER'
+where not exists(select from t_user_authority where id_user = 2 and c_authority = 'ROLE_TOKEN_ISSUER');
+
+-- шлюз, проверяющий access-токены интроспекцией (/jwt/introspect)
+insert into t_user(id, c_username, c_password)
+values (3, 'api.gateway', '{noop}password')
+on conflict do nothing;
+
+insert into t_user_authority(id_user, c_authority)
+select 3, 'ROLE_TOKEN_INTROSPECTOR'
+where not exists(select from t_user_authority where id_user = 3 and c_authority = 'ROLE_TOKEN_INTROSPECTOR');
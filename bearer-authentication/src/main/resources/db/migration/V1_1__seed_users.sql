@@ -0,0 +1,9 @@
+-- тестовый пользователь; on conflict / not exists - в БД, созданной раньше через spring.sql.init,
+-- он уже есть (baseline-on-migrate принимает такую БД как версию 1)
+insert into t_user(id, c_username, c_password)
+values (1, 'j.jameson', '{noop}password')
+on conflict do nothing;
+
+insert into t_user_authority(id_user, c_authority)
+select 1, 'ROLE_MANAGER'
+where not exists(select from t_user_authority where id_user = 1 and c_authority = 'ROLE_MANAGER');
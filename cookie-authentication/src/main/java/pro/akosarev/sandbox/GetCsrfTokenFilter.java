@@ -6,20 +6,30 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.MediaType;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
+import org.springframework.security.web.csrf.CsrfToken;
 import org.springframework.security.web.csrf.CsrfTokenRepository;
 import org.springframework.web.filter.OncePerRequestFilter;
-import tools.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Фильтр для предоставления CSRF-токена клиенту в виде JSON.
  * Обновлён для Spring Security 7.0 с улучшенной обработкой CSRF токенов
+ *
+ * SPA запрашивает /csrf при каждой загрузке страницы. Форма ответа всегда одна -
+ * {"headerName":...,"parameterName":...,"token":...}, поэтому JSON не строится ObjectMapper'ом
+ * через рефлексию: байты вокруг значения токена собираются один раз, а в поток пишется один массив.
+ * Токен из уже присланной куки используется как есть, новый генерируется и сохраняется только без нее.
  */
 public class GetCsrfTokenFilter extends OncePerRequestFilter {
 
+    private static final byte[] TOKEN_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+
     private CsrfTokenRepository csrfTokenRepository = CookieCsrfTokenRepository.withHttpOnlyFalse();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // {"headerName":"...","parameterName":"...","token":" - имена задает репозиторий, они не меняются
+    private volatile Prefix prefix;
 
     public GetCsrfTokenFilter() {
         // Конструктор по умолчанию
@@ -27,6 +37,7 @@ public class GetCsrfTokenFilter extends OncePerRequestFilter {
 
     public void setCsrfTokenRepository(CsrfTokenRepository csrfTokenRepository) {
         this.csrfTokenRepository = csrfTokenRepository;
+        this.prefix = null;
     }
 
     @Override
@@ -35,20 +46,79 @@ public class GetCsrfTokenFilter extends OncePerRequestFilter {
 
         // Простая проверка пути для /csrf endpoint
         if (request.getMethod().equals("GET") && request.getRequestURI().equals("/csrf")) {
-            // Получаем CSRF токен из репозитория
-            var deferredToken = this.csrfTokenRepository.loadDeferredToken(request, response);
-            var csrfToken = deferredToken.get();
+            // кука уже есть - токен из нее, без генерации и без Set-Cookie
+            var csrfToken = this.csrfTokenRepository.loadToken(request);
+            if (csrfToken == null || !isJsonSafe(csrfToken.getToken())) {
+                csrfToken = this.csrfTokenRepository.generateToken(request);
+                this.csrfTokenRepository.saveToken(csrfToken, request, response);
+            }
+
+            var body = toJson(csrfToken);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private byte[] toJson(CsrfToken csrfToken) {
+        var prefix = this.prefix;
+        if (prefix == null || !prefix.matches(csrfToken)) {
+            prefix = new Prefix(csrfToken.getHeaderName(), csrfToken.getParameterName());
+            this.prefix = prefix;
+        }
 
-            if (csrfToken != null) {
-                response.setStatus(HttpServletResponse.SC_OK);
-                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        var token = csrfToken.getToken();
+        var body = new byte[prefix.bytes.length + token.length() + TOKEN_SUFFIX.length];
+        System.arraycopy(prefix.bytes, 0, body, 0, prefix.bytes.length);
+        // только ASCII без кавычек и обратной косой черты (isJsonSafe) - символ равен байту
+        for (var i = 0; i < token.length(); i++) {
+            body[prefix.bytes.length + i] = (byte) token.charAt(i);
+        }
+        System.arraycopy(TOKEN_SUFFIX, 0, body, prefix.bytes.length + token.length(), TOKEN_SUFFIX.length);
+        return body;
+    }
 
-                // Записываем токен в формате JSON
-                this.objectMapper.writeValue(response.getWriter(), csrfToken);
-                return;
+    /**
+     * Токен, который можно вставить в JSON без экранирования. Значение куки присылает клиент:
+     * с кавычкой или управляющим символом оно считается недействительным и заменяется новым токеном.
+     */
+    private static boolean isJsonSafe(String token) {
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+        for (var i = 0; i < token.length(); i++) {
+            var c = token.charAt(i);
+            if (c < 0x20 || c > 0x7E || c == '"' || c == '\\') {
+                return false;
             }
         }
 
-        filterChain.doFilter(request, response);
+        return true;
+    }
+
+    private static final class Prefix {
+
+        private final String headerName;
+
+        private final String parameterName;
+
+        private final byte[] bytes;
+
+        private Prefix(String headerName, String parameterName) {
+            this.headerName = headerName;
+            this.parameterName = parameterName;
+            // имена задаются в коде конфигурации, а не клиентом, и экранирования не требуют
+            this.bytes = ("{\"headerName\":\"" + headerName + "\",\"parameterName\":\"" + parameterName
+                          + "\",\"token\":\"").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private boolean matches(CsrfToken csrfToken) {
+            return this.headerName.equals(csrfToken.getHeaderName())
+                   && this.parameterName.equals(csrfToken.getParameterName());
+        }
     }
 }
@@ -1,8 +1,6 @@
 
 package pro.akosarev.sandbox;
 
-import com.nimbusds.jose.crypto.DirectDecrypter;
-import com.nimbusds.jose.crypto.DirectEncrypter;
 import com.nimbusds.jose.jwk.OctetSequenceKey;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
@@ -11,6 +9,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
@@ -26,6 +25,10 @@ import pro.akosarev.sandbox.create_token.TokenCookieJweStringSerializer;
 import pro.akosarev.sandbox.create_token.TokenCookieSessionAuthenticationStrategy;
 import pro.akosarev.sandbox.read_token.TokenCookieJweStringDeserializer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
 /**
  * Основной класс приложения для демонстрации аутентификации через куки в SPA.
  * Обновлено для Spring Boot 4.0 и Spring Security 7.0
@@ -42,7 +45,7 @@ public class SpaCookieAuthenticationApplication {
     public TokenCookieJweStringSerializer tokenCookieJweStringSerializer(
             @Value("${jwt.cookie-token-key}") String cookieTokenKey
     ) throws Exception {
-        return new TokenCookieJweStringSerializer(new DirectEncrypter(
+        return new TokenCookieJweStringSerializer(new PooledDirectEncrypter(
                 OctetSequenceKey.parse(cookieTokenKey)
         ));
     }
@@ -51,15 +54,52 @@ public class SpaCookieAuthenticationApplication {
     @Bean
     public TokenCookieAuthenticationConfigurer tokenCookieAuthenticationConfigurer(
             @Value("${jwt.cookie-token-key}") String cookieTokenKey,
-            JdbcTemplate jdbcTemplate
+            @Value("${jwt.cookie-renewal-threshold}") double cookieRenewalThreshold,
+            @Value("${jwt.cookie-max-session-age}") Duration cookieMaxSessionAge,
+            @Value("${jwt.cookie-renewal-grace}") Duration cookieRenewalGrace,
+            JdbcTemplate jdbcTemplate,
+            RevocationStore revocationStore,
+            UserDetailsService userDetailsService,
+            TokenCookieJweStringSerializer tokenCookieJweStringSerializer
     ) throws Exception {
         return new TokenCookieAuthenticationConfigurer()
                 .tokenCookieStringDeserializer(new TokenCookieJweStringDeserializer(
-                        new DirectDecrypter(
+                        new PooledDirectDecrypter(
                                 OctetSequenceKey.parse(cookieTokenKey)
                         )
                 ))
-                .jdbcTemplate(jdbcTemplate);
+//                скользящее продление куки без повторного входа
+                .tokenCookieStringSerializer(tokenCookieJweStringSerializer)
+                .tokenCookieRenewalThreshold(cookieRenewalThreshold)
+//                не дольше cookieMaxSessionAge от входа по паролю, права - заново из БД
+                .tokenCookieMaxSessionAge(cookieMaxSessionAge)
+                .tokenCookieRevocationGrace(cookieRenewalGrace)
+                .userDetailsService(userDetailsService)
+                .jdbcTemplate(jdbcTemplate)
+                .revocationStore(revocationStore);
+    }
+
+    /**
+     * Хранилище отозванных токенов выбирается свойством jwt.revocation.store:
+     * jdbc - общая БД, memory - только этот процесс, file - журнал в каталоге на диске для одного узла без БД.
+     */
+    @Bean
+    public RevocationStore revocationStore(
+            JdbcTemplate jdbcTemplate,
+            @Value("${jwt.revocation.store}") String store,
+            @Value("${jwt.revocation.jdbc.purge-interval}") Duration purgeInterval,
+            @Value("${jwt.revocation.file.path}") Path file
+    ) throws IOException {
+        return switch (store) {
+            case "jdbc" -> {
+                var jdbcRevocationStore = new JdbcRevocationStore(jdbcTemplate);
+                jdbcRevocationStore.setPurgeInterval(purgeInterval);
+                yield jdbcRevocationStore;
+            }
+            case "memory" -> new InMemoryRevocationStore();
+            case "file" -> new MappedFileRevocationStore(file);
+            default -> throw new IllegalArgumentException("Unknown jwt.revocation.store: " + store);
+        };
     }
 
     /**
@@ -119,6 +159,33 @@ public class SpaCookieAuthenticationApplication {
                 .build();
     }
 
+    /**
+     * Проверка паролей httpBasic/formLogin на отдельном ограниченном пуле с лимитами
+     * одновременных входов на пользователя и на IP-адрес.
+     * Единственный бин AuthenticationProvider: Spring Security использует его вместо
+     * DaoAuthenticationProvider, который иначе создал бы сам из UserDetailsService.
+     */
+    @Bean
+    public LoginThrottlingAuthenticationProvider loginThrottlingAuthenticationProvider(
+            UserDetailsService userDetailsService,
+            @Value("${login.threads}") int threads,
+            @Value("${login.queue-capacity}") int queueCapacity,
+            @Value("${login.max-concurrent-per-username}") int maxConcurrentPerUsername,
+            @Value("${login.max-concurrent-per-address}") int maxConcurrentPerAddress,
+            @Value("${login.timeout}") Duration timeout,
+            @Value("${login.metrics-log-interval}") Duration metricsLogInterval
+    ) {
+        var authenticationProvider = new LoginThrottlingAuthenticationProvider(
+                new DaoAuthenticationProvider(userDetailsService), threads, queueCapacity);
+        authenticationProvider.setUsernameLimiter(new StripedConcurrencyLimiter(1024, maxConcurrentPerUsername));
+        authenticationProvider.setRemoteAddressLimiter(new StripedConcurrencyLimiter(1024, maxConcurrentPerAddress));
+        authenticationProvider.setTimeout(timeout);
+        if (metricsLogInterval.isPositive()) {
+            authenticationProvider.setLogInterval(metricsLogInterval);
+        }
+        return authenticationProvider;
+    }
+
     /**
      * Configures user lookup via JDBC template
      */
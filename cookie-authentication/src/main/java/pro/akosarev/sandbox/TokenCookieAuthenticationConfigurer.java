@@ -5,15 +5,18 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.AuthenticationEntryPointFailureHandler;
 import org.springframework.security.web.authentication.AuthenticationFilter;
 import org.springframework.security.web.authentication.Http403ForbiddenEntryPoint;
 import org.springframework.security.web.authentication.logout.CookieClearingLogoutHandler;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
 import org.springframework.security.web.csrf.CsrfFilter;
+import pro.akosarev.sandbox.create_token.TokenCookieRenewalHandler;
+import pro.akosarev.sandbox.read_token.CachingTokenCookieStringDeserializer;
 import pro.akosarev.sandbox.read_token.TokenCookieAuthenticationConverter;
 
-import java.util.Date;
+import java.time.Duration;
 import java.util.function.Function;
 
 /**
@@ -23,7 +26,7 @@ import java.util.function.Function;
  *
  * <p>Этот класс объединяет разрозненные компоненты в единый механизм:</p>
  * <ul>
- *     <li>Настраивает логаут: при выходе удаляется кука и ID токена заносится в "черный список" в БД.</li>
+ *     <li>Настраивает логаут: при выходе удаляется кука и ID токена заносится в "черный список" ({@link RevocationStore}).</li>
  *     <li>Добавляет фильтр, который проверяет наличие куки в каждом входящем запросе.</li>
  *     <li>Регистрирует провайдер, который проверяет расшифрованный токен на валидность и актуальность.</li>
  * </ul>
@@ -35,9 +38,26 @@ public class TokenCookieAuthenticationConfigurer
 
     private JdbcTemplate jdbcTemplate;
 
+    // хранилище отозванных токенов; по умолчанию - таблица t_deactivated_token через jdbcTemplate
+    private RevocationStore revocationStore;
+
+    private int tokenCookieCacheSize = 10_000;
+
+    private Function<Token, String> tokenCookieStringSerializer;
+
+    private double tokenCookieRenewalThreshold = 0.5;
+
+    private Duration tokenCookieMaxSessionAge = Duration.ofDays(7);
+
+    private Duration tokenCookieRevocationGrace = Duration.ofSeconds(10);
+
+    // актуальные права пользователя при продлении куки
+    private UserDetailsService userDetailsService;
+
     /**
      * Инициализирует конфигурацию, настраивая механизм логаута.
-     * Добавляет обработчики для удаления куки и занесения идентификатора токена в список деактивированных.
+     * Добавляет обработчики для удаления куки, занесения идентификатора токена в список деактивированных
+     * и удаления расшифрованного токена из кэша.
      *
      * @param builder объект настройки HTTP-безопасности
      */
@@ -50,10 +70,16 @@ public class TokenCookieAuthenticationConfigurer
 // блокируем id токена. Скопировано из логаут фильтра модуля bearer-authentication
                 .addLogoutHandler((request, response, authentication) -> {
                     if (authentication != null &&
-                        authentication.getPrincipal() instanceof TokenUser user) {
-                        // Persists token expiration for deactivation purposes
-                        jdbcTemplate.update("INSERT INTO t_deactivated_token (id, c_keep_until) VALUES (?, ?)",
-                                user.getToken().id(), Date.from(user.getToken().expiresAt()));
+                        authentication.getPrincipal() instanceof TokenUser user &&
+                        user.getToken() != null) {
+                        // id токена хранится до истечения его срока - дальше кука отклоняется и так
+                        var token = user.getToken();
+                        getRevocationStore().revoke(token.id(), token.expiresAt());
+                        // отозванный токен отклонила бы и проверка отзыва, но держать его в кэше до срока незачем
+                        if (authentication.getCredentials() instanceof String tokenString &&
+                            getTokenCookieStringDeserializer() instanceof CachingTokenCookieStringDeserializer cache) {
+                            cache.evict(tokenString);
+                        }
 
                         response.setStatus(HttpServletResponse.SC_NO_CONTENT);
                     }
@@ -78,12 +104,20 @@ public class TokenCookieAuthenticationConfigurer
                 builder.getSharedObject(AuthenticationManager.class),
 
                 // Наша реализация интерфейса org.springframework.security.web.authentication.AuthenticationConverter
-                new TokenCookieAuthenticationConverter(tokenCookieStringDeserializer)
+                new TokenCookieAuthenticationConverter(getTokenCookieStringDeserializer())
         );
 
         // Задаём обработчик успешной аутентификации.
-        // Здесь он пустой: т.е. при успехе не пишем ничего в response и просто продолжаем цепочку фильтров.
+        // При успехе продолжаем цепочку фильтров; если задан сериализатор, то кука, прожившая
+        // заданную долю своего времени жизни, незаметно перевыпускается в этом же ответе.
+        var tokenCookieRenewalHandler = createTokenCookieRenewalHandler();
         cookieAuthenticationFilter.setSuccessHandler((request, response, authentication) -> {
+            // токен уже расшифрован конвертером и лежит в TokenUser - второй раз куку не расшифровываем
+            if (tokenCookieRenewalHandler != null &&
+                authentication.getPrincipal() instanceof TokenUser user &&
+                user.getToken() != null) {
+                tokenCookieRenewalHandler.renewIfNecessary(user.getToken(), response);
+            }
         });
 
         // Задаём обработчик неуспешной аутентификации (например, токен отсутствует/битый/просрочен/невалиден).
@@ -105,7 +139,7 @@ public class TokenCookieAuthenticationConfigurer
         // Внутри обычно: проверка токена, проверка "не отозван ли", загрузка прав и т.п.
         authenticationProvider.setPreAuthenticatedUserDetailsService(
 //  класс   из shared модуля
-                new TokenAuthenticationUserDetailsService(jdbcTemplate)
+                new TokenAuthenticationUserDetailsService(getRevocationStore())
         );
 
         // Регистрируем фильтр в цепочке фильтров Spring Security:
@@ -115,6 +149,47 @@ public class TokenCookieAuthenticationConfigurer
                 .authenticationProvider(authenticationProvider);
     }
 
+    private TokenCookieRenewalHandler createTokenCookieRenewalHandler() {
+        if (this.tokenCookieStringSerializer == null) {
+            return null;
+        }
+
+        if (this.userDetailsService == null) {
+            throw new IllegalStateException("userDetailsService is required to renew token cookies");
+        }
+
+        var tokenCookieRenewalHandler = new TokenCookieRenewalHandler(this.tokenCookieStringSerializer,
+                this.userDetailsService, getRevocationStore());
+        tokenCookieRenewalHandler.setRenewalThreshold(this.tokenCookieRenewalThreshold);
+        tokenCookieRenewalHandler.setMaxSessionAge(this.tokenCookieMaxSessionAge);
+        tokenCookieRenewalHandler.setRevocationGrace(this.tokenCookieRevocationGrace);
+        return tokenCookieRenewalHandler;
+    }
+
+    private RevocationStore getRevocationStore() {
+        if (this.revocationStore == null) {
+            this.revocationStore = new JdbcRevocationStore(this.jdbcTemplate);
+        }
+
+        return this.revocationStore;
+    }
+
+    /**
+     * Возвращает десериализатор токена, общий для всех компонентов конфигуратора.
+     * Если кэш включен, десериализатор один раз оборачивается в {@link CachingTokenCookieStringDeserializer}.
+     *
+     * @return десериализатор токена из строки
+     */
+    private Function<String, Token> getTokenCookieStringDeserializer() {
+        if (this.tokenCookieCacheSize > 0 &&
+            !(this.tokenCookieStringDeserializer instanceof CachingTokenCookieStringDeserializer)) {
+            this.tokenCookieStringDeserializer = new CachingTokenCookieStringDeserializer(
+                    this.tokenCookieStringDeserializer, this.tokenCookieCacheSize);
+        }
+
+        return this.tokenCookieStringDeserializer;
+    }
+
     /**
      * Устанавливает десериализатор токена из строки.
      *
@@ -127,6 +202,84 @@ public class TokenCookieAuthenticationConfigurer
         return this;
     }
 
+    /**
+     * Устанавливает сериализатор токена в строку. Если он задан, кука продлевается без повторного входа.
+     *
+     * @param tokenCookieStringSerializer функция сериализации
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer tokenCookieStringSerializer(
+            Function<Token, String> tokenCookieStringSerializer) {
+        this.tokenCookieStringSerializer = tokenCookieStringSerializer;
+        return this;
+    }
+
+    /**
+     * Устанавливает долю времени жизни куки, после которой она перевыпускается.
+     *
+     * @param tokenCookieRenewalThreshold значение от 0 до 1, по умолчанию 0.5
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer tokenCookieRenewalThreshold(double tokenCookieRenewalThreshold) {
+        this.tokenCookieRenewalThreshold = tokenCookieRenewalThreshold;
+        return this;
+    }
+
+    /**
+     * Устанавливает максимальный возраст сессии от входа по паролю. Старше - кука не продлевается.
+     *
+     * @param tokenCookieMaxSessionAge по умолчанию 7 дней
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer tokenCookieMaxSessionAge(Duration tokenCookieMaxSessionAge) {
+        this.tokenCookieMaxSessionAge = tokenCookieMaxSessionAge;
+        return this;
+    }
+
+    /**
+     * Устанавливает, сколько продленная кука остается действительной, прежде чем будет отозвана.
+     *
+     * @param tokenCookieRevocationGrace по умолчанию 10 секунд
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer tokenCookieRevocationGrace(Duration tokenCookieRevocationGrace) {
+        this.tokenCookieRevocationGrace = tokenCookieRevocationGrace;
+        return this;
+    }
+
+    /**
+     * Устанавливает сервис загрузки пользователей. Нужен для продления куки: права берутся из БД, а не из старой куки.
+     *
+     * @param userDetailsService сервис загрузки пользователей
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer userDetailsService(UserDetailsService userDetailsService) {
+        this.userDetailsService = userDetailsService;
+        return this;
+    }
+
+    /**
+     * Устанавливает размер кэша расшифрованных токенов. 0 отключает кэш.
+     *
+     * @param tokenCookieCacheSize максимальное число токенов в кэше
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer tokenCookieCacheSize(int tokenCookieCacheSize) {
+        this.tokenCookieCacheSize = tokenCookieCacheSize;
+        return this;
+    }
+
+    /**
+     * Устанавливает хранилище отозванных токенов. По умолчанию используется таблица t_deactivated_token.
+     *
+     * @param revocationStore хранилище отозванных токенов
+     * @return текущий объект конфигуратора
+     */
+    public TokenCookieAuthenticationConfigurer revocationStore(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
+        return this;
+    }
+
     /**
      * Устанавливает шаблон для работы с БД.
      *
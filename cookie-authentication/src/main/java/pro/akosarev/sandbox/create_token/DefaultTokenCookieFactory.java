@@ -2,10 +2,11 @@ package pro.akosarev.sandbox.create_token;
 
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
+import pro.akosarev.sandbox.CachedClock;
 import pro.akosarev.sandbox.Token;
 
+import java.time.Clock;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -17,6 +18,8 @@ public class DefaultTokenCookieFactory implements Function<Authentication, Token
 
     private Duration tokenTtl = Duration.ofDays(1);
 
+    private Clock clock = CachedClock.getDefault();
+
     /**
      * Создает токен на основе объекта аутентификации.
      *
@@ -25,13 +28,16 @@ public class DefaultTokenCookieFactory implements Function<Authentication, Token
      */
     @Override
     public Token apply(Authentication authentication) {
-        var now = Instant.now();
+        var id = UUID.randomUUID();
+        var now = this.clock.millis() / 1000;
         // Creates token with authorities and expiration time
-        return new Token(UUID.randomUUID(),
+        return new Token(id.getMostSignificantBits(), id.getLeastSignificantBits(),
                 authentication.getName(),
                 authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).toList(),
                 now,
-                now.plus(this.tokenTtl));
+                now + this.tokenTtl.toSeconds(),
+                // вход по паролю - отсюда отсчитывается максимальный возраст сессии
+                now);
     }
 
     /**
@@ -42,4 +48,13 @@ public class DefaultTokenCookieFactory implements Function<Authentication, Token
     public void setTokenTtl(Duration tokenTtl) {
         this.tokenTtl = tokenTtl;
     }
+
+    /**
+     * Устанавливает часы, от которых отсчитывается время жизни токена.
+     *
+     * @param clock часы, по умолчанию {@link CachedClock#getDefault()}
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
 }
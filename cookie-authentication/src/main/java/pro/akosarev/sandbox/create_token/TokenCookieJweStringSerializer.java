@@ -69,6 +69,7 @@ public class TokenCookieJweStringSerializer implements Function<Token, String> {
                 .issueTime(Date.from(token.createdAt()))
                 .expirationTime(Date.from(token.expiresAt()))
                 .claim("authorities", token.authorities())
+                .claim("auth_time", token.authenticatedAtEpochSecond())
                 .build();
         var encryptedJWT = new EncryptedJWT(jwsHeader, claimsSet);
         try {
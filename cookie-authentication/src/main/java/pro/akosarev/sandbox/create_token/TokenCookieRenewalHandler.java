@@ -0,0 +1,240 @@
+package pro.akosarev.sandbox.create_token;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import pro.akosarev.sandbox.CachedClock;
+import pro.akosarev.sandbox.RevocationStore;
+import pro.akosarev.sandbox.TimingWheel;
+import pro.akosarev.sandbox.Token;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Скользящее продление куки с токеном.
+ *
+ * Без продления все активные пользователи SPA через сутки одновременно проходят полный вход
+ * (загрузка пользователя из БД и проверка пароля). Здесь кука, прожившая заданную долю своего
+ * времени жизни, незаметно перевыпускается в ответе на обычный аутентифицированный запрос,
+ * и продления распределяются во времени.
+ *
+ * Продление не делает сессию вечной:
+ * - момент входа по паролю (authenticatedAt) переносится из токена в токен, и после
+ *   {@code maxSessionAge} кука больше не продлевается, а срок новой куки не выходит за эту границу;
+ * - права загружаются заново через {@link UserDetailsService} (только поиск пользователя, без проверки пароля),
+ *   поэтому смена ролей вступает в силу при ближайшем продлении, а удаленный или заблокированный
+ *   пользователь не получает новую куку, и старая сразу отзывается;
+ * - старая кука отзывается в {@link RevocationStore} через {@code revocationGrace} после выпуска новой -
+ *   параллельные запросы браузера, отправленные до получения новой куки, успевают пройти;
+ *   неудачный отзыв повторяется, а после последней попытки пишется в лог как ошибка.
+ *
+ * Браузер обычно шлет несколько параллельных запросов с одной и той же кукой. Чтобы не выпускать
+ * дубликаты, в памяти запоминаются идентификаторы уже продленных токенов - до истечения их срока,
+ * после которого {@link TimingWheel} их удаляет. Если продление не удалось (ошибка загрузки пользователя
+ * или сериализации), отметка снимается, и куку продлит один из следующих запросов.
+ */
+public class TokenCookieRenewalHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenCookieRenewalHandler.class);
+
+    private Function<Authentication, Token> tokenCookieFactory = new DefaultTokenCookieFactory();
+
+    private final Function<Token, String> tokenStringSerializer;
+
+    private final UserDetailsService userDetailsService;
+
+    private final RevocationStore revocationStore;
+
+    private double renewalThreshold = 0.5;
+
+    private Duration maxSessionAge = Duration.ofDays(7);
+
+    private Duration revocationGrace = Duration.ofSeconds(10);
+
+    private Duration revocationRetryDelay = Duration.ofSeconds(1);
+
+    private int revocationAttempts = 5;
+
+    // id продленного токена -> срок его действия
+    private final ConcurrentHashMap<UUID, Instant> renewedTokens = new ConcurrentHashMap<>();
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    /**
+     * @param tokenStringSerializer сериализатор нового токена в строку для куки
+     * @param userDetailsService    источник актуальных прав пользователя
+     * @param revocationStore       хранилище, в котором отзывается продленная кука
+     */
+    public TokenCookieRenewalHandler(Function<Token, String> tokenStringSerializer,
+                                     UserDetailsService userDetailsService, RevocationStore revocationStore) {
+        this.tokenStringSerializer = tokenStringSerializer;
+        this.userDetailsService = userDetailsService;
+        this.revocationStore = revocationStore;
+    }
+
+    /**
+     * Перевыпускает куку, если токен прожил больше {@code renewalThreshold} своего времени жизни
+     * и сессия не старше {@code maxSessionAge}.
+     *
+     * @param token    токен из текущей куки
+     * @param response ответ, в который добавляется новая кука
+     */
+    public void renewIfNecessary(Token token, HttpServletResponse response) {
+        var now = this.clock.millis();
+        var createdAt = token.createdAtEpochSecond() * 1000;
+        var expiresAt = token.expiresAtEpochSecond() * 1000;
+        var renewAt = createdAt + (long) ((expiresAt - createdAt) * this.renewalThreshold);
+        if (now < renewAt || now >= expiresAt) {
+            return;
+        }
+
+        // сессия исчерпана: кука доживает свой срок, дальше - вход по паролю
+        var sessionEndsAt = token.authenticatedAtEpochSecond() + this.maxSessionAge.toSeconds();
+        if (now >= sessionEndsAt * 1000) {
+            return;
+        }
+
+        // только первый из параллельных запросов с этой кукой выпускает новую
+        if (this.renewedTokens.putIfAbsent(token.id(), token.expiresAt()) != null) {
+            return;
+        }
+
+        // отметка остается, только если кука продлена или отозвана; иначе следующий запрос попробует снова
+        var renewed = false;
+        try {
+            renewed = renew(token, sessionEndsAt, now, response);
+        } finally {
+            if (renewed) {
+                this.timingWheel.schedule(token.expiresAt(), () -> this.renewedTokens.remove(token.id()));
+            } else {
+                this.renewedTokens.remove(token.id(), token.expiresAt());
+            }
+        }
+    }
+
+    private boolean renew(Token token, long sessionEndsAt, long now, HttpServletResponse response) {
+        var user = loadUser(token.subject());
+        if (user == null || !user.isEnabled() || !user.isAccountNonLocked() || !user.isAccountNonExpired()) {
+            this.revocationStore.revoke(token.id(), token.expiresAt());
+            return true;
+        }
+
+        var issued = this.tokenCookieFactory.apply(
+                UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities()));
+        var renewedToken = new Token(issued.idMostSigBits(), issued.idLeastSigBits(), issued.subject(),
+                issued.authorities(), issued.createdAtEpochSecond(),
+                Math.min(issued.expiresAtEpochSecond(), sessionEndsAt),
+                token.authenticatedAtEpochSecond());
+        var tokenString = this.tokenStringSerializer.apply(renewedToken);
+        if (tokenString == null) {
+            return false;
+        }
+
+        response.addCookie(TokenCookieSessionAuthenticationStrategy.createTokenCookie(tokenString,
+                renewedToken.expiresAt()));
+        // отзыв, запланированный перед перезапуском, теряется, но окно - только revocationGrace
+        scheduleRevocation(token, Instant.ofEpochMilli(now + this.revocationGrace.toMillis()), 0);
+        return true;
+    }
+
+    /**
+     * Отзывает старую куку в момент at. Колесо только запускает запись в виртуальном потоке:
+     * запрос к хранилищу не должен задерживать остальные действия колеса. Неудачная запись
+     * повторяется с удвоением паузы, пока кука не истечет или не кончатся попытки.
+     */
+    private void scheduleRevocation(Token token, Instant at, int attempt) {
+        this.timingWheel.schedule(at,
+                () -> Thread.ofVirtual().name("cookie-revocation").start(() -> {
+                    try {
+                        this.revocationStore.revoke(token.id(), token.expiresAt());
+                    } catch (RuntimeException exception) {
+                        var retryAt = this.clock.instant().plus(this.revocationRetryDelay.multipliedBy(1L << attempt));
+                        if (attempt + 1 < this.revocationAttempts && retryAt.isBefore(token.expiresAt())) {
+                            LOGGER.warn("Could not revoke renewed token cookie {}, retrying at {}",
+                                    token.id(), retryAt, exception);
+                            scheduleRevocation(token, retryAt, attempt + 1);
+                        } else {
+                            LOGGER.error("Could not revoke renewed token cookie {}, it stays valid until {}",
+                                    token.id(), token.expiresAt(), exception);
+                        }
+                    }
+                }));
+    }
+
+    private UserDetails loadUser(String username) {
+        try {
+            return this.userDetailsService.loadUserByUsername(username);
+        } catch (UsernameNotFoundException exception) {
+            return null;
+        }
+    }
+
+    public void setTokenCookieFactory(Function<Authentication, Token> tokenCookieFactory) {
+        this.tokenCookieFactory = tokenCookieFactory;
+    }
+
+    /**
+     * Устанавливает долю времени жизни токена, после которой кука продлевается.
+     *
+     * @param renewalThreshold значение от 0 до 1, по умолчанию 0.5
+     */
+    public void setRenewalThreshold(double renewalThreshold) {
+        this.renewalThreshold = renewalThreshold;
+    }
+
+    /**
+     * Устанавливает максимальный возраст сессии от входа по паролю, после которого кука не продлевается.
+     *
+     * @param maxSessionAge по умолчанию 7 дней
+     */
+    public void setMaxSessionAge(Duration maxSessionAge) {
+        this.maxSessionAge = maxSessionAge;
+    }
+
+    /**
+     * Устанавливает, сколько старая кука остается действительной после выпуска новой.
+     *
+     * @param revocationGrace по умолчанию 10 секунд
+     */
+    public void setRevocationGrace(Duration revocationGrace) {
+        this.revocationGrace = revocationGrace;
+    }
+
+    /**
+     * Устанавливает паузу перед повторным отзывом старой куки; каждая следующая пауза вдвое длиннее.
+     *
+     * @param revocationRetryDelay по умолчанию 1 секунда
+     */
+    public void setRevocationRetryDelay(Duration revocationRetryDelay) {
+        this.revocationRetryDelay = revocationRetryDelay;
+    }
+
+    /**
+     * Устанавливает число попыток отзыва старой куки.
+     *
+     * @param revocationAttempts по умолчанию 5
+     */
+    public void setRevocationAttempts(int revocationAttempts) {
+        this.revocationAttempts = revocationAttempts;
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
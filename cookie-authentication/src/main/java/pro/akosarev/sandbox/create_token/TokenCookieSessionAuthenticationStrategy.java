@@ -39,22 +39,28 @@ public class TokenCookieSessionAuthenticationStrategy implements SessionAuthenti
             var token = this.tokenCookieFactory.apply(authentication);
             var tokenString = this.tokenStringSerializer.apply(token);
 
-            // Создаём защищённую куку с улучшенными параметрами безопасности
+            response.addCookie(createTokenCookie(tokenString, token.expiresAt()));
+        }
+    }
+
+    /**
+     * Создаёт защищённую куку с токеном. Используется и при входе, и при продлении куки.
+     */
+    static Cookie createTokenCookie(String tokenString, Instant expiresAt) {
+        // Создаём защищённую куку с улучшенными параметрами безопасности
 // хеадер set-cookie
-            var cookie = new Cookie("__Host-auth-token", tokenString);
-            cookie.setPath("/");
+        var cookie = new Cookie("__Host-auth-token", tokenString);
+        cookie.setPath("/");
 //           этого требует префикс __Host-
-            cookie.setDomain(null);
-            cookie.setSecure(true); // только по https
+        cookie.setDomain(null);
+        cookie.setSecure(true); // только по https
 //            только сервер имел доступ к этой куке
-            cookie.setHttpOnly(true);
-            cookie.setMaxAge((int) ChronoUnit.SECONDS.between(Instant.now(), token.expiresAt()));
-            
-            // Добавляем SameSite атрибут для защиты от CSRF
-            cookie.setAttribute("SameSite", "Strict");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge((int) ChronoUnit.SECONDS.between(Instant.now(), expiresAt));
 
-            response.addCookie(cookie);
-        }
+        // Добавляем SameSite атрибут для защиты от CSRF
+        cookie.setAttribute("SameSite", "Strict");
+        return cookie;
     }
 
     public void setTokenCookieFactory(Function<Authentication, Token> tokenCookieFactory) {
@@ -0,0 +1,88 @@
+package pro.akosarev.sandbox.read_token;
+
+import pro.akosarev.sandbox.CachedClock;
+import pro.akosarev.sandbox.TimingWheel;
+import pro.akosarev.sandbox.Token;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Кэш расшифрованных токенов поверх {@link TokenCookieJweStringDeserializer}.
+ *
+ * Кука живет сутки, а браузер присылает её с каждым запросом. Без кэша каждый запрос
+ * выполняет полный разбор JWE и расшифровку AES-GCM одной и той же строки.
+ * Ключ кэша - запечатанное значение куки целиком, поэтому подделать попадание в кэш нельзя:
+ * любое изменение строки дает промах и обычную расшифровку.
+ *
+ * Запись живет до expiresAt токена и удаляется в этот момент через {@link TimingWheel}, поэтому
+ * в кэше не копятся просроченные токены и его не нужно просматривать целиком. Проверка отзыва (t_deactivated_token) кэшем не затрагивается
+ * и по-прежнему выполняется на каждый запрос.
+ */
+public class CachingTokenCookieStringDeserializer implements Function<String, Token> {
+
+    private final Function<String, Token> tokenCookieStringDeserializer;
+
+    private final ConcurrentHashMap<String, Token> cache = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    /**
+     * @param tokenCookieStringDeserializer десериализатор, выполняющий расшифровку при промахе
+     * @param maxSize                       максимальное число токенов в кэше
+     */
+    public CachingTokenCookieStringDeserializer(Function<String, Token> tokenCookieStringDeserializer, int maxSize) {
+        this.tokenCookieStringDeserializer = tokenCookieStringDeserializer;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Возвращает токен из кэша или расшифровывает строку и кэширует результат.
+     *
+     * @param string зашифрованная строка JWE из куки
+     * @return объект Token или null, если строку не удалось расшифровать
+     */
+    @Override
+    public Token apply(String string) {
+        var now = this.clock.millis();
+        var cached = this.cache.get(string);
+        if (cached != null) {
+            if (cached.expiresAtEpochSecond() * 1000 > now) {
+                return cached;
+            }
+            this.cache.remove(string, cached);
+        }
+
+        var token = this.tokenCookieStringDeserializer.apply(string);
+        // битые и просроченные токены не кэшируем; при заполненном кэше расшифровываем без кэширования
+        if (token != null && token.expiresAtEpochSecond() * 1000 > now && this.cache.size() < this.maxSize
+            && this.cache.putIfAbsent(string, token) == null) {
+            this.timingWheel.schedule(token.expiresAt(), () -> this.cache.remove(string, token));
+        }
+
+        return token;
+    }
+
+    /**
+     * Удаляет токен из кэша при выходе пользователя; вызывается обработчиком логаута
+     * в TokenCookieAuthenticationConfigurer.
+     *
+     * @param string зашифрованная строка JWE из куки
+     */
+    public void evict(String string) {
+        this.cache.remove(string);
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
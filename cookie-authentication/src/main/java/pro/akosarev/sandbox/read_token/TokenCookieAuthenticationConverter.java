@@ -7,7 +7,6 @@ import org.springframework.security.web.authentication.preauth.PreAuthenticatedA
 import pro.akosarev.sandbox.Token;
 
 import java.util.function.Function;
-import java.util.stream.Stream;
 
 /**
  * Конвертер для извлечения аутентификации из куки запроса.
@@ -34,17 +33,16 @@ public class TokenCookieAuthenticationConverter implements AuthenticationConvert
      */
     @Override
     public Authentication convert(HttpServletRequest request) {
-        if (request.getCookies() != null) {
-            // Filters cookies to find authentication token
-            return Stream.of(request.getCookies())
-                    .filter(cookie -> cookie.getName().equals("__Host-auth-token"))
-                    .findFirst()
-                    .map(cookie -> {
-                        var token = tokenCookieStringDeserializer.apply(cookie.getValue());
+        var cookies = request.getCookies();
+        if (cookies != null) {
+            // Простой цикл вместо Stream: метод вызывается на каждый запрос
+            for (var cookie : cookies) {
+                if (cookie.getName().equals("__Host-auth-token")) {
+                    var token = tokenCookieStringDeserializer.apply(cookie.getValue());
 //  пояснение в bearer аутентификации
-                        return new PreAuthenticatedAuthenticationToken(token, cookie.getValue());
-                    })
-                    .orElse(null);
+                    return new PreAuthenticatedAuthenticationToken(token, cookie.getValue());
+                }
+            }
         }
 
         return null;
@@ -3,12 +3,12 @@ package pro.akosarev.sandbox.read_token;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWEDecrypter;
 import com.nimbusds.jwt.EncryptedJWT;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import pro.akosarev.sandbox.SecurityEventLogger;
+import pro.akosarev.sandbox.SecurityEventLogger.TokenFailureKind;
 import pro.akosarev.sandbox.Token;
+import pro.akosarev.sandbox.TokenIds;
 
 import java.text.ParseException;
-import java.util.UUID;
 import java.util.function.Function;
 
 /**
@@ -27,7 +27,8 @@ import java.util.function.Function;
  */
 public class TokenCookieJweStringDeserializer implements Function<String, Token> {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(TokenCookieJweStringDeserializer.class);
+    private static final SecurityEventLogger SECURITY_EVENTS =
+            new SecurityEventLogger(TokenCookieJweStringDeserializer.class.getSimpleName());
 
     private final JWEDecrypter jweDecrypter;
 
@@ -53,12 +54,19 @@ public class TokenCookieJweStringDeserializer implements Function<String, Token>
             encryptedJWT.decrypt(this.jweDecrypter);
             var claimsSet = encryptedJWT.getJWTClaimsSet();
             // Constructs token from claims, including authorities and timestamps
-            return new Token(UUID.fromString(claimsSet.getJWTID()), claimsSet.getSubject(),
+            var jti = claimsSet.getJWTID();
+            var issuedAt = claimsSet.getIssueTime().getTime() / 1000;
+            // куки, выпущенные до появления auth_time, считаются выданными при входе
+            var authenticatedAt = claimsSet.getLongClaim("auth_time");
+            return new Token(TokenIds.mostSigBits(jti), TokenIds.leastSigBits(jti), claimsSet.getSubject(),
                     claimsSet.getStringListClaim("authorities"),
-                    claimsSet.getIssueTime().toInstant(),
-                    claimsSet.getExpirationTime().toInstant());
-        } catch (ParseException | JOSEException exception) {
-            LOGGER.error(exception.getMessage(), exception);
+                    issuedAt,
+                    claimsSet.getExpirationTime().getTime() / 1000,
+                    authenticatedAt != null ? authenticatedAt : issuedAt);
+        } catch (ParseException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.MALFORMED, exception);
+        } catch (JOSEException exception) {
+            SECURITY_EVENTS.tokenParseFailure(TokenFailureKind.DECRYPTION_FAILED, exception);
         }
 
         return null;
@@ -0,0 +1,16 @@
+-- проверка c_keep_until > now() вычислялась на каждой вставке и не давала записать отметку
+-- для уже истекшего токена; истекшие отметки удаляет JdbcRevocationStore.purgeExpired
+alter table t_deactivated_token
+    drop constraint t_deactivated_token_c_keep_until_check;
+
+-- отметки вставляются почти в порядке c_keep_until (срок токена считается от момента выпуска),
+-- поэтому для удаления истекших хватает BRIN: он на порядки меньше B-tree и почти не замедляет вставку
+create index bi_deactivated_token_keep_until on t_deactivated_token using brin (c_keep_until);
+
+-- вход: поиск по c_username читает все поля пользователя - index-only scan без обращения к таблице
+create unique index ui_user_username on t_user (c_username) include (id, c_password);
+alter table t_user
+    drop constraint t_user_c_username_key;
+
+-- authorities пользователя: раньше на каждый вход - последовательный просмотр t_user_authority
+create index i_user_authority_user on t_user_authority (id_user) include (c_authority);
@@ -7,7 +7,29 @@ import java.util.UUID;
 /**
  * Access Token - короткоживущий токен для доступа к ресурсам
  * Содержит полный набор authorities пользователя
+ *
+ * Идентификатор хранится двумя long, а время - в epoch second (точность JWT), поэтому проверенный
+ * токен - это сама запись, строка subject и список authorities, без UUID и двух Instant.
+ * {@link #id()}, {@link #createdAt()} и {@link #expiresAt()} создают объекты при вызове - для кода,
+ * которому нужны именно они; горячий путь сравнивает примитивы.
  */
-public record AccessToken(UUID id, String subject, List<String> authorities, Instant createdAt,
-                          Instant expiresAt) {
+public record AccessToken(long idMostSigBits, long idLeastSigBits, String subject, List<String> authorities,
+                          long createdAtEpochSecond, long expiresAtEpochSecond) {
+
+    public AccessToken(UUID id, String subject, List<String> authorities, Instant createdAt, Instant expiresAt) {
+        this(id.getMostSignificantBits(), id.getLeastSignificantBits(), subject, authorities,
+                createdAt.getEpochSecond(), expiresAt.getEpochSecond());
+    }
+
+    public UUID id() {
+        return new UUID(this.idMostSigBits, this.idLeastSigBits);
+    }
+
+    public Instant createdAt() {
+        return Instant.ofEpochSecond(this.createdAtEpochSecond);
+    }
+
+    public Instant expiresAt() {
+        return Instant.ofEpochSecond(this.expiresAtEpochSecond);
+    }
 }
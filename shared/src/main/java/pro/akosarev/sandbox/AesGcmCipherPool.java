@@ -0,0 +1,63 @@
+package pro.akosarev.sandbox;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул экземпляров {@link Cipher} для AES/GCM/NoPadding.
+ *
+ * Cipher.getInstance - это поиск провайдера и создание SPI на каждый вызов, поэтому
+ * готовые экземпляры переиспользуются. Cipher не потокобезопасен, поэтому каждый экземпляр
+ * в каждый момент принадлежит одному потоку: взяли из пула - инициализировали - вернули.
+ * Сравнение с DirectEncrypter/DirectDecrypter из Nimbus - в cipher-pool-benchmark.md.
+ *
+ * Пул построен на неблокирующей очереди, а не на ThreadLocal: с виртуальными потоками ThreadLocal
+ * создал бы по шифру на каждый виртуальный поток, а synchronized приводил бы к pinning'у.
+ */
+public class AesGcmCipherPool {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int maxSize;
+
+    private final Provider provider;
+
+    public AesGcmCipherPool(int maxSize) {
+        this(maxSize, null);
+    }
+
+    public AesGcmCipherPool(int maxSize, Provider provider) {
+        this.maxSize = maxSize;
+        this.provider = provider;
+    }
+
+    public Cipher borrow() throws GeneralSecurityException {
+        var cipher = this.ciphers.poll();
+        if (cipher != null) {
+            this.size.decrementAndGet();
+            return cipher;
+        }
+
+        return this.provider != null ?
+                Cipher.getInstance(TRANSFORMATION, this.provider) :
+                Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Возвращает шифр в пул. Шифр, на котором операция завершилась ошибкой, возвращать не нужно.
+     */
+    public void release(Cipher cipher) {
+        if (this.size.incrementAndGet() <= this.maxSize) {
+            this.ciphers.offer(cipher);
+        } else {
+            this.size.decrementAndGet();
+        }
+    }
+}
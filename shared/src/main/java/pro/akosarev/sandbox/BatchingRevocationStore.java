@@ -0,0 +1,181 @@
+package pro.akosarev.sandbox;
+
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Декоратор хранилища отзыва, объединяющий одновременные проверки в одну.
+ *
+ * Под высокой нагрузкой сотни потоков Tomcat одновременно выполняют по отдельному
+ * {@code select ... where id = ?}. Здесь поток запроса только ставит идентификатор в очередь и ждет,
+ * а поток-диспетчер собирает все идентификаторы, пришедшие за окно {@code window} (но не больше
+ * {@code batchSize}), выполняет одну пакетную проверку {@link RevocationStore#findRevoked}
+ * (для JDBC - запрос {@code where id = any(?)}) и раздает результаты ожидающим.
+ *
+ * Цена - до {@code window} дополнительной задержки на проверку, поэтому окно должно быть заметно
+ * меньше времени обращения к хранилищу; хранилищам в памяти декоратор не нужен. Ошибка хранилища
+ * или превышение {@code maxWait} - это {@link AuthenticationServiceException}: токен без проверки
+ * отзыва не принимается.
+ * После {@link #close()} ожидающие и новые проверки сразу завершаются тем же исключением.
+ */
+public class BatchingRevocationStore implements RevocationStore, AutoCloseable {
+
+    private final RevocationStore delegate;
+
+    private final LinkedBlockingQueue<Lookup> queue = new LinkedBlockingQueue<>();
+
+    private final int batchSize;
+
+    private final long windowNanos;
+
+    private final long maxWaitNanos;
+
+    private final List<Thread> dispatchers;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param batchSize   максимум идентификаторов в одном запросе
+     * @param window      сколько диспетчер ждет попутчиков после первого идентификатора
+     * @param maxWait     сколько поток запроса ждет ответа
+     * @param dispatchers число потоков-диспетчеров, то есть одновременных запросов к БД
+     */
+    public BatchingRevocationStore(RevocationStore delegate, int batchSize, Duration window, Duration maxWait,
+                                   int dispatchers) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.windowNanos = window.toNanos();
+        this.maxWaitNanos = maxWait.toNanos();
+
+        var threadFactory = Thread.ofPlatform().name("revocation-batch-", 0).daemon(true).factory();
+        this.dispatchers = new ArrayList<>(dispatchers);
+        for (int i = 0; i < dispatchers; i++) {
+            var dispatcher = threadFactory.newThread(this::dispatch);
+            this.dispatchers.add(dispatcher);
+            dispatcher.start();
+        }
+    }
+
+    @Override
+    public boolean isRevoked(UUID tokenId) {
+        if (!this.running) {
+            throw new AuthenticationServiceException("Token revocation store is closed");
+        }
+
+        var lookup = new Lookup(tokenId, new CompletableFuture<>());
+        this.queue.add(lookup);
+        if (!this.running) {
+            // close() мог разобрать очередь раньше, чем в нее попала эта проверка
+            failQueued();
+        }
+        try {
+            return lookup.revoked().get(this.maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException exception) {
+            throw new AuthenticationServiceException("Token revocation check failed", exception.getCause());
+        } catch (TimeoutException exception) {
+            throw new AuthenticationServiceException("Token revocation check timed out", exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Token revocation check interrupted", exception);
+        }
+    }
+
+    private void dispatch() {
+        var batch = new ArrayList<Lookup>(this.batchSize);
+        while (this.running) {
+            try {
+                batch.add(this.queue.take());
+                var deadline = System.nanoTime() + this.windowNanos;
+                while (batch.size() < this.batchSize) {
+                    this.queue.drainTo(batch, this.batchSize - batch.size());
+                    var remaining = deadline - System.nanoTime();
+                    if (batch.size() >= this.batchSize || remaining <= 0) {
+                        break;
+                    }
+                    var next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                complete(batch);
+            } catch (InterruptedException exception) {
+                // собранные проверки иначе ждали бы до maxWait
+                fail(batch, new AuthenticationServiceException("Token revocation check interrupted", exception));
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void complete(List<Lookup> batch) {
+        try {
+            var revoked = findRevoked(batch);
+            for (var lookup : batch) {
+                lookup.revoked().complete(revoked.contains(lookup.tokenId()));
+            }
+        } catch (RuntimeException exception) {
+            fail(batch, exception);
+        }
+    }
+
+    private void fail(List<Lookup> batch, RuntimeException exception) {
+        for (var lookup : batch) {
+            lookup.revoked().completeExceptionally(exception);
+        }
+    }
+
+    private void failQueued() {
+        var queued = new ArrayList<Lookup>();
+        this.queue.drainTo(queued);
+        fail(queued, new AuthenticationServiceException("Token revocation store is closed"));
+    }
+
+    private Set<UUID> findRevoked(List<Lookup> batch) {
+        // один и тот же токен часто приходит в нескольких параллельных запросах
+        var ids = new LinkedHashSet<UUID>(batch.size() * 2);
+        for (var lookup : batch) {
+            ids.add(lookup.tokenId());
+        }
+
+        return this.delegate.findRevoked(ids);
+    }
+
+    @Override
+    public Set<UUID> findRevoked(Collection<UUID> tokenIds) {
+        return this.delegate.findRevoked(tokenIds);
+    }
+
+    @Override
+    public void revoke(UUID tokenId, Instant keepUntil) {
+        this.delegate.revoke(tokenId, keepUntil);
+    }
+
+    @Override
+    public void close() throws Exception {
+        this.running = false;
+        this.dispatchers.forEach(Thread::interrupt);
+        failQueued();
+        // декоратор владеет обернутым хранилищем: файл журнала закрывается вместе с ним
+        if (this.delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private record Lookup(UUID tokenId, CompletableFuture<Boolean> revoked) {
+    }
+}
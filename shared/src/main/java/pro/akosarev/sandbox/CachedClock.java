@@ -0,0 +1,95 @@
+package pro.akosarev.sandbox;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Часы, которые отдают заранее прочитанное время.
+ *
+ * Проверки срока действия токенов на каждом запросе вызывали Instant.now(): системный вызов времени
+ * и новый объект Instant ради сравнения с точностью до секунды. Здесь фоновый поток раз в
+ * {@code resolution} (по умолчанию 1 мс) записывает System.currentTimeMillis() в volatile-поле,
+ * а {@link #millis()} просто читает его - без вызова и без выделения памяти. Сроки сравниваются
+ * как long: {@code expiresAt.toEpochMilli() > clock.millis()}.
+ *
+ * Компоненты принимают обычный {@link Clock}, поэтому в тестах вместо этих часов подставляется
+ * {@link Clock#fixed(Instant, ZoneId)}.
+ */
+public final class CachedClock extends Clock {
+
+    private static volatile CachedClock defaultClock;
+
+    private final Ticker ticker;
+
+    private final ZoneId zone;
+
+    /**
+     * Общие часы процесса с разрешением 1 мс. Создаются при первом обращении, поток - демон.
+     */
+    public static CachedClock getDefault() {
+        var clock = defaultClock;
+        if (clock == null) {
+            synchronized (CachedClock.class) {
+                clock = defaultClock;
+                if (clock == null) {
+                    clock = new CachedClock(Duration.ofMillis(1));
+                    defaultClock = clock;
+                }
+            }
+        }
+
+        return clock;
+    }
+
+    /**
+     * @param resolution как часто обновляется время; столько же, в худшем случае, часы отстают
+     */
+    public CachedClock(Duration resolution) {
+        this(new Ticker(resolution), ZoneOffset.UTC);
+    }
+
+    private CachedClock(Ticker ticker, ZoneId zone) {
+        this.ticker = ticker;
+        this.zone = zone;
+    }
+
+    @Override
+    public long millis() {
+        return this.ticker.millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(this.ticker.millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return this.zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new CachedClock(this.ticker, zone);
+    }
+
+    // одно поле времени и один поток на все экземпляры, отличающиеся только зоной
+    private static final class Ticker {
+
+        private volatile long millis = System.currentTimeMillis();
+
+        Ticker(Duration resolution) {
+            var resolutionNanos = Math.max(1, resolution.toNanos());
+            Thread.ofPlatform().name("cached-clock").daemon(true).start(() -> {
+                while (true) {
+                    LockSupport.parkNanos(resolutionNanos);
+                    this.millis = System.currentTimeMillis();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package pro.akosarev.sandbox;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отозванные токены в памяти процесса.
+ *
+ * Проверка - чтение из {@link OffHeapRevocationSet} без блокировок и без обращения к БД: идентификатор
+ * хранится двумя long вне кучи, а не объектами UUID и Long в ConcurrentHashMap (около 100 байт кучи
+ * на отметку). Отзыв виден только этому экземпляру приложения и теряется при перезапуске, поэтому
+ * хранилище подходит для одного узла.
+ *
+ * Отметки удаляются ровно в срок через {@link TimingWheel}. Чтобы не заводить таймер на каждую отметку,
+ * идентификаторы с одинаковым сроком (с точностью до секунды) собираются в пакет, и колесо
+ * удаляет весь пакет одним действием.
+ */
+public class InMemoryRevocationStore implements RevocationStore {
+
+    private final OffHeapRevocationSet revoked;
+
+    // срок хранения (epoch second) -> идентификаторы, которые истекают в эту секунду
+    private final ConcurrentHashMap<Long, ExpiryBatch> expiryBatches = new ConcurrentHashMap<>();
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    public InMemoryRevocationStore() {
+        this(64 * 1024);
+    }
+
+    /**
+     * @param expectedSize ожидаемое число одновременно действующих отметок
+     */
+    public InMemoryRevocationStore(int expectedSize) {
+        this.revoked = new OffHeapRevocationSet(expectedSize);
+    }
+
+    @Override
+    public boolean isRevoked(UUID tokenId) {
+        return isRevoked(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits());
+    }
+
+    @Override
+    public boolean isRevoked(long mostSigBits, long leastSigBits) {
+        return this.revoked.contains(mostSigBits, leastSigBits, this.clock.millis() / 1000);
+    }
+
+    @Override
+    public void revoke(UUID tokenId, Instant keepUntil) {
+        var mostSigBits = tokenId.getMostSignificantBits();
+        var leastSigBits = tokenId.getLeastSignificantBits();
+        var keepUntilSeconds = keepUntil.getEpochSecond();
+        this.revoked.add(mostSigBits, leastSigBits, keepUntilSeconds);
+
+        // пакет, который колесо уже забрало, удален из таблицы - тогда создается и планируется новый
+        this.expiryBatches.compute(keepUntilSeconds, (second, batch) -> {
+            if (batch == null) {
+                batch = new ExpiryBatch();
+                this.timingWheel.schedule(Instant.ofEpochSecond(second), () -> expire(second));
+            }
+            batch.add(mostSigBits, leastSigBits);
+            return batch;
+        });
+    }
+
+    private void expire(long second) {
+        var batch = this.expiryBatches.remove(second);
+        if (batch == null) {
+            return;
+        }
+
+        var now = this.clock.millis() / 1000;
+        for (var i = 0; i < batch.size; i += 2) {
+            this.revoked.removeIfExpired(batch.ids[i], batch.ids[i + 1], now);
+        }
+    }
+
+    /**
+     * Удаляет все истекшие отметки сразу, не дожидаясь колеса.
+     */
+    public void purgeExpired() {
+        this.revoked.removeExpired(this.clock.millis() / 1000);
+    }
+
+    public int size() {
+        return this.revoked.size();
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    // пары (старшие, младшие биты) подряд; дополняется только внутри compute по своему ключу
+    private static final class ExpiryBatch {
+
+        private long[] ids = new long[8];
+
+        private int size;
+
+        void add(long mostSigBits, long leastSigBits) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.ids[this.size++] = mostSigBits;
+            this.ids[this.size++] = leastSigBits;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package pro.akosarev.sandbox;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link SharedCacheTier} внутри процесса - замена общего хранилища в тестах.
+ *
+ * Несколько экземпляров {@link TwoTierCache}, созданных с одним таким уровнем, ведут себя как узлы
+ * кластера: значение, сохраненное одним, видно остальным, а инвалидация доходит до всех синхронно.
+ */
+public class InProcessSharedCacheTier<V> implements SharedCacheTier<V> {
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<Consumer<String>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private Clock clock = CachedClock.getDefault();
+
+    @Override
+    public Entry<V> get(String key) {
+        var entry = this.entries.get(key);
+        if (entry != null && entry.expiresAtEpochSecond() * 1000 <= this.clock.millis()) {
+            this.entries.remove(key, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry<V> entry) {
+        this.entries.put(key, entry);
+    }
+
+    @Override
+    public void invalidate(String key) {
+        this.entries.remove(key);
+        for (var listener : this.invalidationListeners) {
+            listener.accept(key);
+        }
+    }
+
+    @Override
+    public void addInvalidationListener(Consumer<String> listener) {
+        this.invalidationListeners.add(listener);
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+}
@@ -0,0 +1,172 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Отозванные токены в таблице t_deactivated_token.
+ *
+ * Проверки могут идти через отдельный JdbcTemplate, например пул реплики из {@link TokenDataSources};
+ * отзыв всегда записывается через основной.
+ *
+ * Истекшие отметки удаляет {@link #purgeExpired()}; с {@code setPurgeInterval} - периодически,
+ * пока хранилище не закрыто ({@link #close()} вызывает Spring при остановке контекста).
+ */
+public class JdbcRevocationStore implements RevocationStore, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdbcRevocationStore.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcTemplate readJdbcTemplate;
+
+    private int purgeBatchSize = 10_000;
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private volatile TimingWheel.Timeout purging;
+
+    private volatile boolean closed;
+
+    public JdbcRevocationStore(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, jdbcTemplate);
+    }
+
+    public JdbcRevocationStore(TokenDataSources tokenDataSources) {
+        this(tokenDataSources.getJdbcTemplate(), tokenDataSources.getRevocationReadJdbcTemplate());
+    }
+
+    /**
+     * @param jdbcTemplate     запись отзыва
+     * @param readJdbcTemplate проверки отзыва
+     */
+    public JdbcRevocationStore(JdbcTemplate jdbcTemplate, JdbcTemplate readJdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readJdbcTemplate = readJdbcTemplate;
+    }
+
+    @Override
+    public boolean isRevoked(UUID tokenId) {
+        return Boolean.TRUE.equals(this.readJdbcTemplate.queryForObject("""
+                select exists(select id from t_deactivated_token where id = ?)
+                """, Boolean.class, tokenId));
+    }
+
+    /**
+     * Один запрос на весь пакет: id = any(?).
+     */
+    @Override
+    public Set<UUID> findRevoked(Collection<UUID> tokenIds) {
+        var revoked = new HashSet<UUID>();
+        if (tokenIds.isEmpty()) {
+            return revoked;
+        }
+
+        var ids = new String[tokenIds.size()];
+        var i = 0;
+        for (var tokenId : tokenIds) {
+            ids[i++] = tokenId.toString();
+        }
+
+        this.readJdbcTemplate.query("select id from t_deactivated_token where id = any (?::uuid[])",
+                rs -> {
+                    revoked.add(rs.getObject("id", UUID.class));
+                },
+                (Object) ids);
+        return revoked;
+    }
+
+    @Override
+    public void revoke(UUID tokenId, Instant keepUntil) {
+        // повторный логаут с тем же токеном - не ошибка
+        this.jdbcTemplate.update("""
+                        insert into t_deactivated_token (id, c_keep_until) values (?, ?)
+                        on conflict (id) do nothing
+                        """,
+                tokenId, Timestamp.from(keepUntil));
+    }
+
+    /**
+     * Удаляет истекшие отметки пакетами по {@code purgeBatchSize}: короткие транзакции не держат
+     * блокировки и не раздувают WAL одним огромным удалением. Отбор идет по BRIN-индексу на c_keep_until.
+     *
+     * @return число удаленных отметок
+     */
+    public int purgeExpired() {
+        var now = Timestamp.from(this.clock.instant());
+        var purged = 0;
+        int deleted;
+        do {
+            deleted = this.jdbcTemplate.update("""
+                            delete from t_deactivated_token
+                            where id in (select id from t_deactivated_token where c_keep_until < ? limit ?)
+                            """,
+                    now, this.purgeBatchSize);
+            purged += deleted;
+        } while (deleted == this.purgeBatchSize);
+
+        return purged;
+    }
+
+    /**
+     * Включает периодическое удаление истекших отметок. Колесо только запускает удаление
+     * в виртуальном потоке: запрос к БД не должен задерживать остальные действия колеса.
+     */
+    public void setPurgeInterval(Duration purgeInterval) {
+        schedulePurge(purgeInterval);
+    }
+
+    private void schedulePurge(Duration purgeInterval) {
+        if (this.closed) {
+            return;
+        }
+        this.purging = this.timingWheel.schedule(this.clock.instant().plus(purgeInterval),
+                () -> Thread.ofVirtual().name("revocation-purge").start(() -> {
+                    try {
+                        var purged = purgeExpired();
+                        LOGGER.debug("Purged {} expired revocations", purged);
+                    } catch (DataAccessException exception) {
+                        LOGGER.warn("Could not purge expired revocations", exception);
+                    } finally {
+                        schedulePurge(purgeInterval);
+                    }
+                }));
+    }
+
+    public void setPurgeBatchSize(int purgeBatchSize) {
+        this.purgeBatchSize = purgeBatchSize;
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Останавливает периодическое удаление; уже начатый проход завершается и больше не планируется.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        var purging = this.purging;
+        if (purging != null) {
+            purging.cancel();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pro.akosarev.sandbox;
+
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Попытка входа отклонена до проверки пароля: превышен лимит одновременных входов
+ * для пользователя или адреса, либо переполнен пул проверки паролей.
+ */
+public class LoginThrottledException extends AuthenticationException {
+
+    public LoginThrottledException(String message) {
+        super(message);
+    }
+
+    public LoginThrottledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
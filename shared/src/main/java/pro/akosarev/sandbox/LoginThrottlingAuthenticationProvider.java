@@ -0,0 +1,239 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Вход по логину и паролю (httpBasic, formLogin) на отдельном ограниченном пуле.
+ *
+ * Проверка хеша пароля - самая дорогая по процессору операция приложения. Если выполнять её
+ * на потоках Tomcat, перебор паролей вытесняет проверку bearer-токенов уже вошедших пользователей.
+ * Здесь проверка выполняется делегатом (обычно DaoAuthenticationProvider) на собственном пуле
+ * фиксированного размера, а до постановки в очередь действуют лимиты одновременных входов
+ * на имя пользователя и на IP-адрес. Отказ по лимиту - {@link LoginThrottledException}, без проверки пароля.
+ * Счетчики отказов и время проверки можно периодически писать в лог ({@link #setLogInterval}).
+ */
+public class LoginThrottlingAuthenticationProvider implements AuthenticationProvider, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginThrottlingAuthenticationProvider.class);
+
+    private final AuthenticationProvider delegate;
+
+    private final ThreadPoolExecutor executor;
+
+    private StripedConcurrencyLimiter usernameLimiter = new StripedConcurrencyLimiter(1024, 2);
+
+    private StripedConcurrencyLimiter remoteAddressLimiter = new StripedConcurrencyLimiter(1024, 16);
+
+    private Duration timeout = Duration.ofSeconds(5);
+
+    private final LongAdder attempts = new LongAdder();
+
+    private final LongAdder rejectedByUsername = new LongAdder();
+
+    private final LongAdder rejectedByRemoteAddress = new LongAdder();
+
+    private final LongAdder rejectedByQueue = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final LongAdder verificationNanos = new LongAdder();
+
+    private Metrics lastLogged = new Metrics(0, 0, 0, 0, 0, 0, 0, Duration.ZERO);
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private final PeriodicMetricsLog metricsLog = new PeriodicMetricsLog(this::log);
+
+    public LoginThrottlingAuthenticationProvider(AuthenticationProvider delegate, int threads, int queueCapacity) {
+        this.delegate = delegate;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("login-", 0).daemon(true).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        this.attempts.increment();
+
+        var usernameStripe = this.usernameLimiter.tryAcquire(authentication.getName());
+        if (usernameStripe < 0) {
+            this.rejectedByUsername.increment();
+            throw new LoginThrottledException("Too many concurrent logins for this user");
+        }
+
+        var remoteAddressStripe = -1;
+        if (authentication.getDetails() instanceof WebAuthenticationDetails details) {
+            remoteAddressStripe = this.remoteAddressLimiter.tryAcquire(details.getRemoteAddress());
+            if (remoteAddressStripe < 0) {
+                this.usernameLimiter.release(usernameStripe);
+                this.rejectedByRemoteAddress.increment();
+                throw new LoginThrottledException("Too many concurrent logins from this address");
+            }
+        }
+
+        return verify(authentication, usernameStripe, remoteAddressStripe);
+    }
+
+    /**
+     * Полосы освобождает сама задача проверки, когда она завершена, а не поток запроса: хеширование
+     * не прерывается, и после таймаута ожидания оно еще занимает процессор. Иначе лимиты одновременных
+     * входов переставали бы действовать как раз под нагрузкой, когда ожидание истекает.
+     */
+    private Authentication verify(Authentication authentication, int usernameStripe, int remoteAddressStripe) {
+        var result = new CompletableFuture<Authentication>();
+        Runnable task = () -> {
+            try {
+                // запрос уже получил отказ по таймауту, пока задача стояла в очереди, - пароль не проверяем
+                if (!result.isDone()) {
+                    var start = System.nanoTime();
+                    try {
+                        result.complete(this.delegate.authenticate(authentication));
+                    } catch (Throwable throwable) {
+                        result.completeExceptionally(throwable);
+                    } finally {
+                        this.verificationNanos.add(System.nanoTime() - start);
+                    }
+                }
+            } finally {
+                this.remoteAddressLimiter.release(remoteAddressStripe);
+                this.usernameLimiter.release(usernameStripe);
+            }
+        };
+
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException exception) {
+            this.remoteAddressLimiter.release(remoteAddressStripe);
+            this.usernameLimiter.release(usernameStripe);
+            this.rejectedByQueue.increment();
+            throw new LoginThrottledException("Login queue is full", exception);
+        }
+
+        try {
+            return result.get(this.timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof AuthenticationException authenticationException) {
+                throw authenticationException;
+            }
+            throw new AuthenticationServiceException(exception.getCause().getMessage(), exception.getCause());
+        } catch (TimeoutException exception) {
+            // начатая проверка доработает и освободит полосы, задача в очереди - пропустит проверку
+            result.cancel(false);
+            this.timedOut.increment();
+            throw new LoginThrottledException("Login verification timed out", exception);
+        } catch (InterruptedException exception) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Login verification interrupted", exception);
+        }
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication) &&
+               this.delegate.supports(authentication);
+    }
+
+    /**
+     * Текущие значения счетчиков с запуска.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(this.attempts.sum(), this.rejectedByUsername.sum(), this.rejectedByRemoteAddress.sum(),
+                this.rejectedByQueue.sum(), this.timedOut.sum(), this.executor.getQueue().size(),
+                this.executor.getActiveCount(), Duration.ofNanos(this.verificationNanos.sum()));
+    }
+
+    public void setUsernameLimiter(StripedConcurrencyLimiter usernameLimiter) {
+        this.usernameLimiter = usernameLimiter;
+    }
+
+    public void setRemoteAddressLimiter(StripedConcurrencyLimiter remoteAddressLimiter) {
+        this.remoteAddressLimiter = remoteAddressLimiter;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Включает событие login_throttling в лог раз в logInterval, если за интервал были попытки входа
+     * или в пуле есть проверки. В событии - прирост счетчиков за интервал и среднее время проверки.
+     */
+    public void setLogInterval(Duration logInterval) {
+        this.metricsLog.start(logInterval, this.timingWheel, this.clock);
+    }
+
+    private void log() {
+        var metrics = getMetrics();
+        var last = this.lastLogged;
+        this.lastLogged = metrics;
+        var attempts = metrics.attempts() - last.attempts();
+        var rejected = metrics.rejectedByUsername() - last.rejectedByUsername()
+                       + metrics.rejectedByRemoteAddress() - last.rejectedByRemoteAddress()
+                       + metrics.rejectedByQueue() - last.rejectedByQueue();
+        var timedOut = metrics.timedOut() - last.timedOut();
+        if (attempts == 0 && metrics.queued() == 0 && metrics.active() == 0) {
+            return;
+        }
+
+        var verified = attempts - rejected;
+        var averageVerification = verified <= 0
+                ? Duration.ZERO
+                : metrics.totalVerificationTime().minus(last.totalVerificationTime()).dividedBy(verified);
+        LOGGER.atInfo()
+                .addKeyValue("event", "login_throttling")
+                .addKeyValue("attempts", attempts)
+                .addKeyValue("rejected_by_username", metrics.rejectedByUsername() - last.rejectedByUsername())
+                .addKeyValue("rejected_by_address", metrics.rejectedByRemoteAddress() - last.rejectedByRemoteAddress())
+                .addKeyValue("rejected_by_queue", metrics.rejectedByQueue() - last.rejectedByQueue())
+                .addKeyValue("timed_out", timedOut)
+                .addKeyValue("average_verification_ms", averageVerification.toMillis())
+                .addKeyValue("queued", metrics.queued())
+                .addKeyValue("active", metrics.active())
+                .log("Logins: {} attempts, {} throttled, {} timed out, average verification {} ms, {} queued",
+                        attempts, rejected, timedOut, averageVerification.toMillis(), metrics.queued());
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Останавливает пул и событие в лог.
+     */
+    @Override
+    public void close() {
+        this.metricsLog.close();
+        this.executor.shutdown();
+    }
+
+    public record Metrics(long attempts, long rejectedByUsername, long rejectedByRemoteAddress,
+                          long rejectedByQueue, long timedOut, int queued, int active,
+                          Duration totalVerificationTime) {
+    }
+}
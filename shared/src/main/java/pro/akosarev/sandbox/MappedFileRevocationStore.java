@@ -0,0 +1,321 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отозванные токены в журнале из файлов, отображенных в память, - для узла без PostgreSQL,
+ * которому после перезапуска не нужна массовая загрузка из t_deactivated_token.
+ *
+ * Журнал - каталог сегментов. Сегмент собирает отметки, срок хранения которых попадает в один
+ * интервал длиной {@code segmentDuration}, и называется концом этого интервала (epoch second).
+ * Поэтому сегмент целиком истекает в известный момент: {@link TimingWheel} в этот момент убирает
+ * его отметки из множества и удаляет файл - без переписывания журнала.
+ *
+ * Сегмент начинается с заголовка в 24 байта (сигнатура, позиция фиксации, конец интервала),
+ * за ним - записи по 24 байта: старшие и младшие 64 бита UUID и срок хранения отметки.
+ * Запись сначала пишется целиком и только потом сдвигается позиция фиксации, поэтому оборванная
+ * при падении запись лежит за позицией фиксации и при открытии не читается.
+ *
+ * Проверка идет по {@link OffHeapRevocationSet} вне кучи, файлы читаются только при открытии.
+ * Запись в отображенную память переживает падение процесса, но не отключение питания:
+ * для этого нужен {@code setSync(true)} - сброс записи и заголовка на диск при каждом отзыве.
+ */
+public class MappedFileRevocationStore implements RevocationStore, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileRevocationStore.class);
+
+    static final int RECORD_SIZE = 24;
+
+    static final String SEGMENT_SUFFIX = ".revocations";
+
+    // "JWTREVOK"
+    private static final long MAGIC = 0x4A57545245564F4BL;
+
+    private static final int COMMIT_POSITION_OFFSET = 8;
+
+    private static final int SEGMENT_END_OFFSET = 16;
+
+    private final Path directory;
+
+    private final long segmentSeconds;
+
+    private final int initialCapacity;
+
+    private final OffHeapRevocationSet revoked;
+
+    // конец интервала -> открытый сегмент; меняется только под writeLock
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    // писатель один в каждый момент; ReentrantLock, а не synchronized - без pinning'а виртуальных потоков
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private boolean sync;
+
+    public MappedFileRevocationStore(Path directory) throws IOException {
+        this(directory, Duration.ofMinutes(15), 4 * 1024);
+    }
+
+    /**
+     * @param directory       каталог сегментов, создается при отсутствии
+     * @param segmentDuration какой интервал сроков хранения собирает один сегмент; столько же, в худшем
+     *                        случае, отметка лежит на диске после истечения
+     * @param initialCapacity сколько записей отобразить в новом сегменте сразу; при заполнении область удваивается
+     */
+    public MappedFileRevocationStore(Path directory, Duration segmentDuration, int initialCapacity)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSeconds = Math.max(1, segmentDuration.toSeconds());
+        this.initialCapacity = initialCapacity;
+        this.revoked = new OffHeapRevocationSet(initialCapacity);
+        replay();
+    }
+
+    /**
+     * Открывает живые сегменты и читает их записи до позиции фиксации; истекшие сегменты удаляются сразу.
+     */
+    private void replay() throws IOException {
+        var now = this.clock.millis() / 1000;
+        try (var files = Files.newDirectoryStream(this.directory, "*" + SEGMENT_SUFFIX)) {
+            for (var file : files) {
+                var name = file.getFileName().toString();
+                long segmentEnd;
+                try {
+                    segmentEnd = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException exception) {
+                    LOGGER.warn("Skipping unexpected file {} in revocation log", file);
+                    continue;
+                }
+
+                if (segmentEnd <= now) {
+                    Files.delete(file);
+                    continue;
+                }
+
+                var segment = Segment.open(file, segmentEnd, this.initialCapacity);
+                for (var position = Segment.HEADER_SIZE; position < segment.commitPosition; position += RECORD_SIZE) {
+                    var keepUntil = segment.buffer.getLong(position + 16);
+                    if (keepUntil > now) {
+                        this.revoked.add(segment.buffer.getLong(position), segment.buffer.getLong(position + 8),
+                                keepUntil);
+                    }
+                }
+                this.segments.put(segmentEnd, segment);
+                scheduleRemoval(segment, segmentEnd);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRevoked(UUID tokenId) {
+        return isRevoked(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits());
+    }
+
+    @Override
+    public boolean isRevoked(long mostSigBits, long leastSigBits) {
+        return this.revoked.contains(mostSigBits, leastSigBits, this.clock.millis() / 1000);
+    }
+
+    @Override
+    public void revoke(UUID tokenId, Instant keepUntil) {
+        var keepUntilSeconds = keepUntil.getEpochSecond();
+        if (keepUntilSeconds <= this.clock.millis() / 1000) {
+            // токен уже истек и будет отклонен и без отметки
+            return;
+        }
+
+        // конец интервала, в который попадает срок хранения: (segmentEnd - segmentSeconds, segmentEnd]
+        var segmentEnd = Math.ceilDiv(keepUntilSeconds, this.segmentSeconds) * this.segmentSeconds;
+        this.writeLock.lock();
+        try {
+            var segment = this.segments.get(segmentEnd);
+            if (segment == null) {
+                segment = Segment.open(this.directory.resolve(segmentEnd + SEGMENT_SUFFIX), segmentEnd,
+                        this.initialCapacity);
+                this.segments.put(segmentEnd, segment);
+                scheduleRemoval(segment, segmentEnd);
+            }
+            segment.append(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), keepUntilSeconds,
+                    this.sync);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        this.revoked.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), keepUntilSeconds);
+    }
+
+    private void scheduleRemoval(Segment segment, long segmentEnd) {
+        segment.removal = this.timingWheel.schedule(Instant.ofEpochSecond(segmentEnd),
+                () -> removeSegment(segmentEnd));
+    }
+
+    /**
+     * Удаляет сегмент, интервал которого закончился: его отметки убираются из множества по одной
+     * (отметки, продленные в более поздний сегмент, остаются), а файл удаляется.
+     */
+    private void removeSegment(long segmentEnd) {
+        var now = this.clock.millis() / 1000;
+        this.writeLock.lock();
+        try {
+            var segment = this.segments.remove(segmentEnd);
+            if (segment == null) {
+                return;
+            }
+
+            for (var position = Segment.HEADER_SIZE; position < segment.commitPosition; position += RECORD_SIZE) {
+                this.revoked.removeIfExpired(segment.buffer.getLong(position), segment.buffer.getLong(position + 8),
+                        now);
+            }
+            try {
+                segment.close();
+                Files.deleteIfExists(segment.file);
+            } catch (IOException exception) {
+                LOGGER.warn("Could not delete expired revocation log segment {}", segment.file, exception);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return this.revoked.size();
+    }
+
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Сегменты, прочитанные при открытии, уже запланированы на прежнем колесе и переносятся на новое.
+     */
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.writeLock.lock();
+        try {
+            this.timingWheel = timingWheel;
+            this.segments.forEach((segmentEnd, segment) -> {
+                segment.removal.cancel();
+                scheduleRemoval(segment, segmentEnd);
+            });
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writeLock.lock();
+        try {
+            for (var segment : this.segments.values()) {
+                segment.removal.cancel();
+                segment.close();
+            }
+            this.segments.clear();
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private static final class Segment {
+
+        static final int HEADER_SIZE = RECORD_SIZE;
+
+        private final Path file;
+
+        private final FileChannel channel;
+
+        private MappedByteBuffer buffer;
+
+        private int commitPosition;
+
+        private TimingWheel.Timeout removal;
+
+        private Segment(Path file, FileChannel channel, MappedByteBuffer buffer, int commitPosition) {
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.commitPosition = commitPosition;
+        }
+
+        static Segment open(Path file, long segmentEnd, int initialCapacity) throws IOException {
+            var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            var size = Math.max(channel.size(), HEADER_SIZE + (long) initialCapacity * RECORD_SIZE);
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size - (size - HEADER_SIZE) % RECORD_SIZE);
+
+            var commitPosition = HEADER_SIZE;
+            if (buffer.getLong(0) == MAGIC && buffer.getLong(SEGMENT_END_OFFSET) == segmentEnd) {
+                var committed = buffer.getLong(COMMIT_POSITION_OFFSET);
+                if (committed >= HEADER_SIZE && committed <= buffer.capacity()
+                        && (committed - HEADER_SIZE) % RECORD_SIZE == 0) {
+                    commitPosition = (int) committed;
+                }
+            } else {
+                // новый файл или не наш заголовок - начинаем сегмент заново
+                buffer.putLong(0, MAGIC);
+                buffer.putLong(SEGMENT_END_OFFSET, segmentEnd);
+                buffer.putLong(COMMIT_POSITION_OFFSET, commitPosition);
+            }
+
+            return new Segment(file, channel, buffer, commitPosition);
+        }
+
+        void append(long mostSigBits, long leastSigBits, long keepUntil, boolean sync) throws IOException {
+            if (this.commitPosition + RECORD_SIZE > this.buffer.capacity()) {
+                grow();
+            }
+
+            var position = this.commitPosition;
+            this.buffer.putLong(position, mostSigBits);
+            this.buffer.putLong(position + 8, leastSigBits);
+            this.buffer.putLong(position + 16, keepUntil);
+            if (sync) {
+                // запись должна оказаться на диске раньше, чем позиция фиксации, которая на нее указывает
+                this.buffer.force(position, RECORD_SIZE);
+            }
+
+            this.commitPosition = position + RECORD_SIZE;
+            this.buffer.putLong(COMMIT_POSITION_OFFSET, this.commitPosition);
+            if (sync) {
+                this.buffer.force(0, HEADER_SIZE);
+            }
+        }
+
+        private void grow() throws IOException {
+            var size = (long) this.buffer.capacity() * 2 - HEADER_SIZE;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Revocation log segment is full: " + this.file);
+            }
+            // отображение за концом файла расширяет файл
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size - (size - HEADER_SIZE) % RECORD_SIZE);
+        }
+
+        void close() throws IOException {
+            this.buffer.force();
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package pro.akosarev.sandbox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Множество идентификаторов отозванных токенов вне кучи: открытая адресация с линейным пробированием
+ * в direct ByteBuffer, ключ - два long UUID без упаковки в объекты.
+ *
+ * Слот - те же 24 байта, что и запись журнала: старшие и младшие 64 бита UUID и срок хранения
+ * отметки (epoch second). Миллион отметок занимает до 48 МБ вне кучи (таблица заполняется не больше
+ * чем на 3/4 и растет удвоением) и не добавляет сборщику мусора ни одного объекта.
+ *
+ * Множество разбито на полосы по старшим битам хэша, у каждой полосы своя таблица и своя
+ * блокировка записи, поэтому одновременные отзывы почти не мешают друг другу.
+ *
+ * Чтение идет без блокировок. Срок хранения слота служит флагом публикации: писатель сначала пишет UUID,
+ * а потом срок с release-семантикой; читатель сначала читает срок с acquire-семантикой и поэтому видит
+ * UUID целиком. Слот с нулевым сроком и нулевым UUID пуст и обрывает пробирование.
+ *
+ * Истекшие отметки не удаляются, а становятся надгробиями ({@link #TOMBSTONE}): пробирование идет
+ * через них дальше, а новый отзыв занимает первое надгробие на своем пути. Когда надгробий становится
+ * много, полоса перестраивается в новую таблицу без них.
+ */
+class OffHeapRevocationSet {
+
+    private static final int SLOT_SIZE = 24;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE / SLOT_SIZE;
+
+    // срок хранения надгробия меньше любого "сейчас", поэтому contains для него всегда false
+    static final long TOMBSTONE = -1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final Stripe[] stripes;
+
+    private final int stripeShift;
+
+    OffHeapRevocationSet(int expectedSize) {
+        this(expectedSize, 16);
+    }
+
+    /**
+     * @param expectedSize ожидаемое число отметок - от него зависит начальный размер таблиц
+     * @param stripes      число полос, округляется вверх до степени двойки
+     */
+    OffHeapRevocationSet(int expectedSize, int stripes) {
+        var stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[stripeCount];
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+        for (var i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(capacityFor(expectedSize / stripeCount));
+        }
+    }
+
+    /**
+     * @return true, если идентификатор есть в множестве и срок хранения его отметки позже now
+     */
+    boolean contains(long mostSigBits, long leastSigBits, long now) {
+        var hash = hash(mostSigBits, leastSigBits);
+        return stripe(hash).find(hash, mostSigBits, leastSigBits) > now;
+    }
+
+    /**
+     * Добавляет идентификатор; для уже известного срок хранения продлевается до большего из двух.
+     */
+    void add(long mostSigBits, long leastSigBits, long keepUntil) {
+        if (mostSigBits == 0 && leastSigBits == 0) {
+            // нулевой UUID - признак пустого слота, токенов с таким идентификатором не выпускается
+            throw new IllegalArgumentException("Nil UUID cannot be revoked");
+        }
+        if (keepUntil <= 0) {
+            return;
+        }
+
+        var hash = hash(mostSigBits, leastSigBits);
+        stripe(hash).add(hash, mostSigBits, leastSigBits, keepUntil);
+    }
+
+    /**
+     * Превращает отметки со сроком хранения не позже now в надгробия.
+     *
+     * @return сколько отметок удалено
+     */
+    int removeExpired(long now) {
+        var removed = 0;
+        for (var stripe : this.stripes) {
+            removed += stripe.removeExpired(now);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Превращает в надгробие одну отметку, если ее срок хранения не позже now. Отметка, продленная
+     * повторным отзывом, остается.
+     *
+     * @return true, если отметка удалена
+     */
+    boolean removeIfExpired(long mostSigBits, long leastSigBits, long now) {
+        var hash = hash(mostSigBits, leastSigBits);
+        return stripe(hash).removeIfExpired(hash, mostSigBits, leastSigBits, now);
+    }
+
+    /**
+     * @return число живых отметок; полосы читаются без блокировок, поэтому значение приблизительное
+     */
+    int size() {
+        var size = 0;
+        for (var stripe : this.stripes) {
+            size += stripe.size;
+        }
+
+        return size;
+    }
+
+    // слот внутри полосы выбирается младшими битами хэша, полоса - старшими
+    private Stripe stripe(int hash) {
+        return this.stripes.length == 1 ? this.stripes[0] : this.stripes[hash >>> this.stripeShift];
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        // финализатор MurmurHash3: версия и вариант UUID лежат в фиксированных битах, их надо перемешать
+        var h = mostSigBits * 31 + leastSigBits;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        var capacity = 16;
+        while ((long) capacity * 3 < (long) expectedSize * 4) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Revocation set is full");
+        }
+        return capacity;
+    }
+
+    private static final class Stripe {
+
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        // заменяется целиком при перестройке; читатель работает с тем экземпляром, который прочитал
+        private volatile Table table;
+
+        // живые отметки; меняется под writeLock, читается size() без блокировки
+        private volatile int size;
+
+        private int tombstones;
+
+        Stripe(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        // срок хранения отметки, 0 - если идентификатора нет, TOMBSTONE - если отметка истекла
+        long find(int hash, long mostSigBits, long leastSigBits) {
+            var table = this.table;
+            var mask = table.capacity - 1;
+            var slot = hash & mask;
+            for (var probe = 0; probe <= mask; probe++, slot = (slot + 1) & mask) {
+                var offset = slot * SLOT_SIZE;
+                var keepUntil = (long) LONGS.getAcquire(table.buffer, offset + 16);
+                var slotMostSigBits = (long) LONGS.getOpaque(table.buffer, offset);
+                var slotLeastSigBits = (long) LONGS.getOpaque(table.buffer, offset + 8);
+                if (keepUntil != 0 && slotMostSigBits == mostSigBits && slotLeastSigBits == leastSigBits) {
+                    return keepUntil;
+                }
+                if (keepUntil == 0 && slotMostSigBits == 0 && slotLeastSigBits == 0) {
+                    return 0;
+                }
+                // иначе слот занят другим идентификатором, надгробием или еще не опубликован - дальше
+            }
+
+            return 0;
+        }
+
+        void add(int hash, long mostSigBits, long leastSigBits, long keepUntil) {
+            this.writeLock.lock();
+            try {
+                if ((long) (this.size + this.tombstones + 1) * 4 > (long) this.table.capacity * 3) {
+                    rebuild(capacityFor(this.size + 1), Long.MIN_VALUE);
+                }
+
+                var table = this.table;
+                var mask = table.capacity - 1;
+                var firstTombstone = -1;
+                for (var slot = hash & mask; ; slot = (slot + 1) & mask) {
+                    var offset = slot * SLOT_SIZE;
+                    var slotKeepUntil = (long) LONGS.get(table.buffer, offset + 16);
+                    var slotMostSigBits = (long) LONGS.get(table.buffer, offset);
+                    var slotLeastSigBits = (long) LONGS.get(table.buffer, offset + 8);
+                    if (slotKeepUntil == TOMBSTONE) {
+                        if (firstTombstone < 0) {
+                            firstTombstone = offset;
+                        }
+                        continue;
+                    }
+                    if (slotMostSigBits == mostSigBits && slotLeastSigBits == leastSigBits) {
+                        LONGS.setRelease(table.buffer, offset + 16, Math.max(slotKeepUntil, keepUntil));
+                        return;
+                    }
+                    if (slotMostSigBits == 0 && slotLeastSigBits == 0) {
+                        if (firstTombstone >= 0) {
+                            offset = firstTombstone;
+                            this.tombstones--;
+                        }
+                        // UUID пишется раньше срока: пока срок не опубликован, читатель слот пропускает
+                        LONGS.setOpaque(table.buffer, offset, mostSigBits);
+                        LONGS.setOpaque(table.buffer, offset + 8, leastSigBits);
+                        LONGS.setRelease(table.buffer, offset + 16, keepUntil);
+                        this.size++;
+                        return;
+                    }
+                }
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        boolean removeIfExpired(int hash, long mostSigBits, long leastSigBits, long now) {
+            this.writeLock.lock();
+            try {
+                var table = this.table;
+                var mask = table.capacity - 1;
+                var slot = hash & mask;
+                for (var probe = 0; probe <= mask; probe++, slot = (slot + 1) & mask) {
+                    var offset = slot * SLOT_SIZE;
+                    var keepUntil = (long) LONGS.get(table.buffer, offset + 16);
+                    var slotMostSigBits = (long) LONGS.get(table.buffer, offset);
+                    var slotLeastSigBits = (long) LONGS.get(table.buffer, offset + 8);
+                    if (keepUntil != TOMBSTONE && slotMostSigBits == mostSigBits
+                            && slotLeastSigBits == leastSigBits) {
+                        if (keepUntil > now) {
+                            return false;
+                        }
+                        LONGS.setRelease(table.buffer, offset + 16, TOMBSTONE);
+                        this.size--;
+                        this.tombstones++;
+                        if (this.tombstones * 4L > table.capacity) {
+                            rebuild(capacityFor(this.size), now);
+                        }
+                        return true;
+                    }
+                    if (keepUntil == 0 && slotMostSigBits == 0 && slotLeastSigBits == 0) {
+                        return false;
+                    }
+                }
+
+                return false;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        int removeExpired(long now) {
+            this.writeLock.lock();
+            try {
+                var table = this.table;
+                var removed = 0;
+                for (var offset = 0; offset < table.capacity * SLOT_SIZE; offset += SLOT_SIZE) {
+                    var keepUntil = (long) LONGS.get(table.buffer, offset + 16);
+                    if (keepUntil != 0 && keepUntil != TOMBSTONE && keepUntil <= now) {
+                        LONGS.setRelease(table.buffer, offset + 16, TOMBSTONE);
+                        removed++;
+                    }
+                }
+                this.size -= removed;
+                this.tombstones += removed;
+
+                if (this.tombstones * 4L > table.capacity
+                        || (table.capacity > 16 && this.size * 8L < table.capacity)) {
+                    // надгробия удлиняют пробирование, а почти пустая таблица зря держит память вне кучи
+                    rebuild(capacityFor(this.size), now);
+                }
+                return removed;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        private void rebuild(int capacity, long now) {
+            var source = this.table;
+            var target = new Table(capacity);
+            var mask = capacity - 1;
+            var size = 0;
+            for (var offset = 0; offset < source.capacity * SLOT_SIZE; offset += SLOT_SIZE) {
+                var keepUntil = (long) LONGS.get(source.buffer, offset + 16);
+                if (keepUntil == 0 || keepUntil == TOMBSTONE || keepUntil <= now) {
+                    continue;
+                }
+                var mostSigBits = (long) LONGS.get(source.buffer, offset);
+                var leastSigBits = (long) LONGS.get(source.buffer, offset + 8);
+                var slot = hash(mostSigBits, leastSigBits) & mask;
+                while ((long) LONGS.get(target.buffer, slot * SLOT_SIZE + 16) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                LONGS.set(target.buffer, slot * SLOT_SIZE, mostSigBits);
+                LONGS.set(target.buffer, slot * SLOT_SIZE + 8, leastSigBits);
+                LONGS.set(target.buffer, slot * SLOT_SIZE + 16, keepUntil);
+                size++;
+            }
+
+            // volatile-запись публикует заполненную таблицу; старый буфер освободит Cleaner
+            this.table = target;
+            this.size = size;
+            this.tombstones = 0;
+        }
+    }
+
+    private static final class Table {
+
+        private final ByteBuffer buffer;
+
+        // число слотов, степень двойки
+        private final int capacity;
+
+        Table(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity * SLOT_SIZE).order(ByteOrder.nativeOrder());
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pro.akosarev.sandbox;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Периодическое событие метрик в лог без Micrometer: действие выполняется на {@link TimingWheel} раз в interval,
+ * пока журнал не закрыт.
+ *
+ * Общая часть {@link PoolWaitMetrics}, {@link TwoTierCache} и других компонентов с {@code setLogInterval}.
+ * Следующий запуск планируется после завершения текущего, поэтому вызовы действия не пересекаются,
+ * и снимок прошлого события оно может хранить в обычном поле. Ошибка действия не останавливает журнал.
+ * Журнал запускается один раз: повторный {@link #start} - ошибка конфигурации, а не вторая цепочка событий.
+ */
+public class PeriodicMetricsLog implements AutoCloseable {
+
+    private final Runnable action;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile TimingWheel.Timeout next;
+
+    private volatile boolean closed;
+
+    public PeriodicMetricsLog(Runnable action) {
+        this.action = action;
+    }
+
+    /**
+     * @param interval    интервал между событиями
+     * @param timingWheel колесо, на потоке которого выполняется действие
+     * @param clock       часы, от которых отсчитывается интервал
+     * @throws IllegalStateException если журнал уже запущен
+     */
+    public void start(Duration interval, TimingWheel timingWheel, Clock clock) {
+        if (!this.started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Metrics log is already started");
+        }
+        schedule(interval, timingWheel, clock);
+    }
+
+    private void schedule(Duration interval, TimingWheel timingWheel, Clock clock) {
+        if (this.closed) {
+            return;
+        }
+        var next = timingWheel.schedule(clock.instant().plus(interval), () -> {
+            try {
+                this.action.run();
+            } finally {
+                schedule(interval, timingWheel, clock);
+            }
+        });
+        this.next = next;
+        // close() мог отменить предыдущий запуск, пока планировался этот
+        if (this.closed) {
+            next.cancel();
+        }
+    }
+
+    /**
+     * Останавливает событие в лог.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        var next = this.next;
+        if (next != null) {
+            next.cancel();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package pro.akosarev.sandbox;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Время ожидания соединения в пулах HikariCP - без Micrometer.
+ *
+ * Hikari сообщает трекеру, сколько поток ждал соединения, и каждый таймаут ожидания; здесь это
+ * суммируется в LongAdder по имени пула. Растущее ожидание в пуле токенов значит, что проверки отзыва
+ * стоят в очереди за соединением, - пул мал для нагрузки или соединения держит медленный запрос.
+ *
+ * Чтение значений ничего не сбрасывает. Для наблюдения без Micrometer есть периодическое
+ * структурированное событие в лог ({@link #setLogInterval}): прирост счетчиков за интервал и среднее
+ * ожидание за него считаются по предыдущему снимку, который хранит сам журнал.
+ */
+public class PoolWaitMetrics implements MetricsTrackerFactory, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolWaitMetrics.class);
+
+    private final ConcurrentHashMap<String, Tracker> trackers = new ConcurrentHashMap<>();
+
+    private final Map<String, Metrics> lastLogged = new HashMap<>();
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private final PeriodicMetricsLog metricsLog = new PeriodicMetricsLog(this::log);
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        var tracker = new Tracker(poolStats);
+        this.trackers.put(poolName, tracker);
+        return tracker;
+    }
+
+    /**
+     * Текущие значения для мониторинга. Все счетчики, включая максимальное ожидание, считаются с запуска пула.
+     *
+     * @return null, если пул с таким именем еще не запущен
+     */
+    public Metrics getMetrics(String poolName) {
+        var tracker = this.trackers.get(poolName);
+        if (tracker == null) {
+            return null;
+        }
+
+        var poolStats = tracker.poolStats;
+        return new Metrics(tracker.acquired.sum(), Duration.ofNanos(tracker.waitNanos.sum()),
+                Duration.ofNanos(tracker.maxWaitNanos.get()), tracker.timeouts.sum(),
+                poolStats.getActiveConnections(), poolStats.getIdleConnections(), poolStats.getPendingThreads());
+    }
+
+    /**
+     * Включает событие connection_pool_wait в лог раз в logInterval для каждого пула, в котором за интервал
+     * выдавались соединения, были таймауты или есть ждущие потоки.
+     */
+    public void setLogInterval(Duration logInterval) {
+        this.metricsLog.start(logInterval, this.timingWheel, this.clock);
+    }
+
+    private void log() {
+        for (var poolName : this.trackers.keySet()) {
+            var metrics = getMetrics(poolName);
+            var last = this.lastLogged.put(poolName, metrics);
+            var acquired = metrics.acquired() - (last == null ? 0 : last.acquired());
+            var wait = metrics.totalWait().minus(last == null ? Duration.ZERO : last.totalWait());
+            var timeouts = metrics.timeouts() - (last == null ? 0 : last.timeouts());
+            if (acquired == 0 && timeouts == 0 && metrics.pending() == 0) {
+                continue;
+            }
+
+            var averageWait = acquired == 0 ? Duration.ZERO : wait.dividedBy(acquired);
+            LOGGER.atInfo()
+                    .addKeyValue("event", "connection_pool_wait")
+                    .addKeyValue("pool", poolName)
+                    .addKeyValue("acquired", acquired)
+                    .addKeyValue("average_wait_us", averageWait.toNanos() / 1000)
+                    .addKeyValue("max_wait_us", metrics.maxWait().toNanos() / 1000)
+                    .addKeyValue("timeouts", timeouts)
+                    .addKeyValue("active", metrics.active())
+                    .addKeyValue("idle", metrics.idle())
+                    .addKeyValue("pending", metrics.pending())
+                    .log("Pool {}: {} connections acquired, average wait {} us, {} timeouts, {} pending",
+                            poolName, acquired, averageWait.toNanos() / 1000, timeouts, metrics.pending());
+        }
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Останавливает событие в лог.
+     */
+    @Override
+    public void close() {
+        this.metricsLog.close();
+    }
+
+    private static final class Tracker implements IMetricsTracker {
+
+        private final PoolStats poolStats;
+
+        private final LongAdder acquired = new LongAdder();
+
+        private final LongAdder waitNanos = new LongAdder();
+
+        private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private Tracker(PoolStats poolStats) {
+            this.poolStats = poolStats;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            this.acquired.increment();
+            this.waitNanos.add(elapsedAcquiredNanos);
+            this.maxWaitNanos.accumulate(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            this.timeouts.increment();
+        }
+    }
+
+    /**
+     * @param maxWait самое долгое ожидание с запуска пула
+     * @param pending потоков ждут соединения прямо сейчас
+     */
+    public record Metrics(long acquired, Duration totalWait, Duration maxWait, long timeouts,
+                          int active, int idle, int pending) {
+    }
+}
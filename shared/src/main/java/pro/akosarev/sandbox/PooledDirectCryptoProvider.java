@@ -0,0 +1,82 @@
+package pro.akosarev.sandbox;
+
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEProvider;
+import com.nimbusds.jose.jca.JWEJCAContext;
+
+import javax.crypto.SecretKey;
+import java.util.Set;
+
+/**
+ * Общая часть {@link PooledDirectEncrypter} и {@link PooledDirectDecrypter}:
+ * алгоритм dir (ключ используется напрямую) и AES-GCM с шифрами из {@link AesGcmCipherPool}.
+ */
+abstract class PooledDirectCryptoProvider implements JWEProvider {
+
+    static final int IV_BYTE_LENGTH = 12;
+
+    static final int AUTH_TAG_BIT_LENGTH = 128;
+
+    private final SecretKey key;
+
+    private final EncryptionMethod encryptionMethod;
+
+    private final AesGcmCipherPool cipherPool;
+
+    private final JWEJCAContext jcaContext = new JWEJCAContext();
+
+    PooledDirectCryptoProvider(SecretKey key, AesGcmCipherPool cipherPool) throws JOSEException {
+        this.key = key;
+        this.cipherPool = cipherPool;
+        // как и в DirectEncrypter, метод шифрования определяется длиной ключа
+        this.encryptionMethod = switch (key.getEncoded().length) {
+            case 16 -> EncryptionMethod.A128GCM;
+            case 24 -> EncryptionMethod.A192GCM;
+            case 32 -> EncryptionMethod.A256GCM;
+            default -> throw new JOSEException("The AES key length must be 128, 192 or 256 bits");
+        };
+    }
+
+    void checkHeader(JWEHeader header) throws JOSEException {
+        if (!JWEAlgorithm.DIR.equals(header.getAlgorithm())) {
+            throw new JOSEException("Unsupported JWE algorithm %s, must be dir".formatted(header.getAlgorithm()));
+        }
+        if (!this.encryptionMethod.equals(header.getEncryptionMethod())) {
+            throw new JOSEException("Unsupported JWE encryption method %s, must be %s"
+                    .formatted(header.getEncryptionMethod(), this.encryptionMethod));
+        }
+        // сжатие и критические параметры не поддерживаются - такие токены мы не выпускаем
+        if (header.getCompressionAlgorithm() != null) {
+            throw new JOSEException("JWE compression is not supported");
+        }
+        if (header.getCriticalParams() != null && !header.getCriticalParams().isEmpty()) {
+            throw new JOSEException("Critical JWE header parameters are not supported");
+        }
+    }
+
+    SecretKey getKey() {
+        return key;
+    }
+
+    AesGcmCipherPool getCipherPool() {
+        return cipherPool;
+    }
+
+    @Override
+    public Set<JWEAlgorithm> supportedJWEAlgorithms() {
+        return Set.of(JWEAlgorithm.DIR);
+    }
+
+    @Override
+    public Set<EncryptionMethod> supportedEncryptionMethods() {
+        return Set.of(this.encryptionMethod);
+    }
+
+    @Override
+    public JWEJCAContext getJCAContext() {
+        return jcaContext;
+    }
+}
@@ -0,0 +1,64 @@
+package pro.akosarev.sandbox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWEDecrypter;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.util.Base64URL;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Замена {@link com.nimbusds.jose.crypto.DirectDecrypter} для dir + AES-GCM
+ * с шифрами из {@link AesGcmCipherPool}. Потокобезопасен.
+ */
+public class PooledDirectDecrypter extends PooledDirectCryptoProvider implements JWEDecrypter {
+
+    public PooledDirectDecrypter(OctetSequenceKey key) throws JOSEException {
+        this(key.toSecretKey("AES"), new AesGcmCipherPool(Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public PooledDirectDecrypter(SecretKey key, AesGcmCipherPool cipherPool) throws JOSEException {
+        super(key, cipherPool);
+    }
+
+    @Override
+    public byte[] decrypt(JWEHeader header, Base64URL encryptedKey, Base64URL iv, Base64URL cipherText,
+                          Base64URL authTag, byte[] aad) throws JOSEException {
+        checkHeader(header);
+        // при dir зашифрованного ключа в токене быть не должно
+        if (encryptedKey != null) {
+            throw new JOSEException("Unexpected present JWE encrypted key");
+        }
+        if (iv == null || authTag == null) {
+            throw new JOSEException("Unexpected missing JWE initialization vector or authentication tag");
+        }
+
+        var ivBytes = iv.decode();
+        var tagBytes = authTag.decode();
+        if (ivBytes.length != IV_BYTE_LENGTH || tagBytes.length != AUTH_TAG_BIT_LENGTH / 8) {
+            throw new JOSEException("Invalid JWE initialization vector or authentication tag length");
+        }
+
+        // JCA ожидает шифротекст и тег одним массивом
+        var cipherTextBytes = cipherText.decode();
+        var cipherInput = Arrays.copyOf(cipherTextBytes, cipherTextBytes.length + tagBytes.length);
+        System.arraycopy(tagBytes, 0, cipherInput, cipherTextBytes.length, tagBytes.length);
+
+        try {
+            var cipher = getCipherPool().borrow();
+            cipher.init(Cipher.DECRYPT_MODE, getKey(), new GCMParameterSpec(AUTH_TAG_BIT_LENGTH, ivBytes));
+            cipher.updateAAD(aad);
+            var clearText = cipher.doFinal(cipherInput);
+            getCipherPool().release(cipher);
+            return clearText;
+        } catch (GeneralSecurityException exception) {
+            // в том числе AEADBadTagException - токен подделан или зашифрован чужим ключом
+            throw new JOSEException("AES/GCM/NoPadding decryption failed: " + exception.getMessage(), exception);
+        }
+    }
+}
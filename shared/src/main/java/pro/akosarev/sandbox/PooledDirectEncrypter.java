@@ -0,0 +1,61 @@
+package pro.akosarev.sandbox;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWECryptoParts;
+import com.nimbusds.jose.JWEEncrypter;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.util.Base64URL;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Замена {@link com.nimbusds.jose.crypto.DirectEncrypter} для dir + AES-GCM.
+ *
+ * Формат токена не меняется, но вместо создания Cipher на каждый токен
+ * используются шифры из {@link AesGcmCipherPool}. Потокобезопасен.
+ */
+public class PooledDirectEncrypter extends PooledDirectCryptoProvider implements JWEEncrypter {
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    public PooledDirectEncrypter(OctetSequenceKey key) throws JOSEException {
+        this(key.toSecretKey("AES"), new AesGcmCipherPool(Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    public PooledDirectEncrypter(SecretKey key, AesGcmCipherPool cipherPool) throws JOSEException {
+        super(key, cipherPool);
+    }
+
+    @Override
+    public JWECryptoParts encrypt(JWEHeader header, byte[] clearText, byte[] aad) throws JOSEException {
+        checkHeader(header);
+
+        // IV обязан быть новым для каждого шифрования тем же ключом
+        var iv = new byte[IV_BYTE_LENGTH];
+        this.secureRandom.nextBytes(iv);
+
+        byte[] cipherOutput;
+        try {
+            var cipher = getCipherPool().borrow();
+            cipher.init(Cipher.ENCRYPT_MODE, getKey(), new GCMParameterSpec(AUTH_TAG_BIT_LENGTH, iv));
+            cipher.updateAAD(aad);
+            cipherOutput = cipher.doFinal(clearText);
+            getCipherPool().release(cipher);
+        } catch (GeneralSecurityException exception) {
+            throw new JOSEException("Couldn't encrypt with AES/GCM/NoPadding: " + exception.getMessage(), exception);
+        }
+
+        // JCA возвращает шифротекст и тег одним массивом, тег - последние 16 байт
+        var tagOffset = cipherOutput.length - AUTH_TAG_BIT_LENGTH / 8;
+        return new JWECryptoParts(header, null,
+                Base64URL.encode(iv),
+                Base64URL.encode(Arrays.copyOfRange(cipherOutput, 0, tagOffset)),
+                Base64URL.encode(Arrays.copyOfRange(cipherOutput, tagOffset, cipherOutput.length)));
+    }
+}
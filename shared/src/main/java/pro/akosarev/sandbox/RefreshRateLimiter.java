@@ -0,0 +1,136 @@
+package pro.akosarev.sandbox;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограничитель частоты обращений к /jwt/refresh по идентификатору refresh-токена или по имени пользователя.
+ *
+ * Без него клиент с ошибкой может вызывать обновление в цикле, и каждый вызов - это загрузка
+ * пользователя из БД и подпись нового JWS.
+ *
+ * Реализован как token bucket в форме GCRA (generic cell rate algorithm): состояние корзины - одно
+ * число, "теоретическое время прибытия" (TAT). Поэтому таблица - это плоский массив пар long
+ * (отпечаток ключа, TAT) с открытой адресацией, а обновление корзины - один CAS, без блокировок
+ * и без объектов на запрос.
+ *
+ * Отдельная очистка по таймеру не нужна: как только TAT ячейки оказался в прошлом, корзина
+ * неотличима от новой и ячейку может занять другой ключ.
+ *
+ * Ограничитель приблизительный: при переполнении окна проб или гонке за одну ячейку ключ
+ * пропускается без ограничения - отказывать легитимному клиенту хуже, чем пропустить лишний запрос.
+ *
+ * Ключ по refresh-токену не останавливает клиента, который получает новые refresh-токены (повторный вход)
+ * и обновляет каждым по очереди, поэтому /jwt/refresh проверяет и второй ограничитель - по имени пользователя
+ * ({@link #tryAcquire(CharSequence)}), с более свободным лимитом на все устройства пользователя.
+ *
+ * Проверка - около 100 нс на поток (JDK 17); замер в shared/refresh-rate-limiter-benchmark.md.
+ */
+public class RefreshRateLimiter {
+
+    private static final int MAX_PROBES = 8;
+
+    private static final long EMPTY = 0;
+
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    // интервал между разрешениями, T в терминах GCRA
+    private final long emissionIntervalNanos;
+
+    // допустимый всплеск, tau = (burst - 1) * T
+    private final long burstToleranceNanos;
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param period   интервал, за который восстанавливается одно разрешение
+     * @param burst    сколько обновлений подряд разрешено без ожидания
+     * @param capacity число ячеек таблицы, округляется вверх до степени двойки
+     */
+    public RefreshRateLimiter(Duration period, int burst, int capacity) {
+        var size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.table = new AtomicLongArray(size * 2);
+        this.mask = size - 1;
+        this.emissionIntervalNanos = period.toNanos();
+        this.burstToleranceNanos = (burst - 1) * this.emissionIntervalNanos;
+    }
+
+    /**
+     * @return 0, если обновление разрешено, иначе сколько наносекунд нужно подождать
+     */
+    public long tryAcquire(UUID id) {
+        return tryAcquire(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Проверка по строковому ключу, например имени пользователя. Строка хешируется в два long без выделения памяти.
+     *
+     * @return 0, если обновление разрешено, иначе сколько наносекунд нужно подождать
+     */
+    public long tryAcquire(CharSequence key) {
+        var fnv = 0xCBF29CE484222325L;
+        var polynomial = (long) key.length();
+        for (int i = 0; i < key.length(); i++) {
+            var c = key.charAt(i);
+            fnv = (fnv ^ c) * 0x100000001B3L;
+            polynomial = polynomial * 31 + c;
+        }
+
+        return tryAcquire(fnv, polynomial);
+    }
+
+    public long tryAcquire(long mostSigBits, long leastSigBits) {
+        // время отсчитывается от создания ограничителя, поэтому всегда положительно
+        var now = System.nanoTime() - this.origin + 1;
+        var fingerprint = fingerprint(mostSigBits, leastSigBits);
+        var start = (int) (fingerprint ^ (fingerprint >>> 32));
+
+        var freeSlot = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            var slot = ((start + probe) & this.mask) << 1;
+            var key = this.table.get(slot);
+            if (key == fingerprint) {
+                return acquire(slot + 1, now);
+            }
+            if (freeSlot < 0 && (key == EMPTY || this.table.get(slot + 1) <= now)) {
+                freeSlot = slot;
+            }
+        }
+
+        if (freeSlot >= 0) {
+            var key = this.table.get(freeSlot);
+            if ((key == EMPTY || this.table.get(freeSlot + 1) <= now) &&
+                this.table.compareAndSet(freeSlot, key, fingerprint)) {
+                return acquire(freeSlot + 1, now);
+            }
+        }
+
+        return 0;
+    }
+
+    private long acquire(int tatIndex, long now) {
+        while (true) {
+            var tat = this.table.get(tatIndex);
+            var arrival = Math.max(tat, now);
+            var wait = arrival - now - this.burstToleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (this.table.compareAndSet(tatIndex, tat, arrival + this.emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private static long fingerprint(long mostSigBits, long leastSigBits) {
+        // финализатор splitmix64: UUID v4 и так случаен, но ключ может прийти и не из UUID
+        var hash = mostSigBits * 0x9E3779B97F4A7C15L ^ leastSigBits;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return hash == EMPTY ? 1 : hash;
+    }
+}
@@ -7,7 +7,26 @@ import java.util.UUID;
  * Refresh Token - долгоживущий токен для обновления Access Token
  * Содержит минимум информации: только subject и идентификатор
  * Не содержит authorities - они будут загружены из БД при обновлении
+ *
+ * Хранение компактное, как у {@link AccessToken}: идентификатор - два long, время - epoch second.
  */
-public record RefreshToken(UUID id, String subject, Instant createdAt,
-                           Instant expiresAt) {
+public record RefreshToken(long idMostSigBits, long idLeastSigBits, String subject,
+                           long createdAtEpochSecond, long expiresAtEpochSecond) {
+
+    public RefreshToken(UUID id, String subject, Instant createdAt, Instant expiresAt) {
+        this(id.getMostSignificantBits(), id.getLeastSignificantBits(), subject,
+                createdAt.getEpochSecond(), expiresAt.getEpochSecond());
+    }
+
+    public UUID id() {
+        return new UUID(this.idMostSigBits, this.idLeastSigBits);
+    }
+
+    public Instant createdAt() {
+        return Instant.ofEpochSecond(this.createdAtEpochSecond);
+    }
+
+    public Instant expiresAt() {
+        return Instant.ofEpochSecond(this.expiresAtEpochSecond);
+    }
 }
@@ -0,0 +1,64 @@
+package pro.akosarev.sandbox;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Хранилище отозванных ("деактивированных") токенов.
+ *
+ * Раньше отзыв был зашит SQL-запросами к t_deactivated_token в конвертер, сервис UserDetails
+ * и обработчики логаута. Теперь каждое развертывание выбирает реализацию под свой компромисс
+ * между задержкой и надежностью:
+ * - {@link JdbcRevocationStore} - общая БД, отзыв виден всем экземплярам приложения;
+ * - {@link InMemoryRevocationStore} - без обращений к БД, но только в пределах одного процесса;
+ * - {@link MappedFileRevocationStore} - один узел без PostgreSQL, отзыв переживает перезапуск;
+ * - {@link BatchingRevocationStore} - декоратор, объединяющий одновременные проверки в одну.
+ *
+ * Идентификатор достаточно хранить до истечения срока действия токена: после этого
+ * токен отклоняется и без проверки отзыва.
+ */
+public interface RevocationStore {
+
+    /**
+     * @return true, если токен отозван
+     */
+    boolean isRevoked(UUID tokenId);
+
+    /**
+     * Проверка по идентификатору в виде двух long, как он хранится в {@link AccessToken} и {@link RefreshToken}.
+     * Хранилища в памяти переопределяют метод и обходятся без объекта UUID.
+     *
+     * @return true, если токен отозван
+     */
+    default boolean isRevoked(long mostSigBits, long leastSigBits) {
+        return isRevoked(new UUID(mostSigBits, leastSigBits));
+    }
+
+    /**
+     * Проверка пакета токенов. Реализации, для которых есть более дешевый способ, чем проверка
+     * по одному (например, один запрос к БД), переопределяют этот метод.
+     *
+     * @return отозванные идентификаторы из переданных
+     */
+    default Set<UUID> findRevoked(Collection<UUID> tokenIds) {
+        var revoked = new HashSet<UUID>();
+        for (var tokenId : tokenIds) {
+            if (isRevoked(tokenId)) {
+                revoked.add(tokenId);
+            }
+        }
+
+        return revoked;
+    }
+
+    /**
+     * Отзывает токен.
+     *
+     * @param tokenId   идентификатор токена
+     * @param keepUntil до какого момента хранить отметку - обычно срок действия токена
+     */
+    void revoke(UUID tokenId, Instant keepUntil);
+}
@@ -0,0 +1,100 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Канал событий безопасности для ошибок разбора токенов.
+ *
+ * Раньше десериализаторы писали LOGGER.error со стектрейсом на каждый битый или поддельный токен -
+ * во время credential stuffing одно только логирование съедает процессор.
+ * Теперь каждая ошибка только увеличивает счетчик своего вида, а в лог попадает не больше
+ * одного события на вид за интервал - с числом пропущенных событий и общим счетчиком.
+ * Стектрейс пишется только при включенном DEBUG.
+ */
+public class SecurityEventLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecurityEventLogger.class);
+
+    public enum TokenFailureKind {
+        /**
+         * строка не является JWS/JWE или claims не разбираются
+         */
+        MALFORMED,
+        /**
+         * подпись не прошла проверку
+         */
+        INVALID_SIGNATURE,
+        /**
+         * JWE не расшифровался: чужой ключ или измененный токен
+         */
+        DECRYPTION_FAILED
+    }
+
+    private final String source;
+
+    private final long intervalNanos;
+
+    private final Map<TokenFailureKind, Counter> counters = new EnumMap<>(TokenFailureKind.class);
+
+    public SecurityEventLogger(String source) {
+        this(source, Duration.ofSeconds(10));
+    }
+
+    public SecurityEventLogger(String source, Duration interval) {
+        this.source = source;
+        this.intervalNanos = interval.toNanos();
+        for (var kind : TokenFailureKind.values()) {
+            this.counters.put(kind, new Counter(System.nanoTime() - this.intervalNanos));
+        }
+    }
+
+    public void tokenParseFailure(TokenFailureKind kind, Exception exception) {
+        var counter = this.counters.get(kind);
+        counter.total.increment();
+        counter.sinceLastEvent.increment();
+
+        var now = System.nanoTime();
+        var lastEventAt = counter.lastEventAt.get();
+        // событие пишет только один поток, выигравший CAS, остальные лишь считают
+        if (now - lastEventAt < this.intervalNanos || !counter.lastEventAt.compareAndSet(lastEventAt, now)) {
+            return;
+        }
+
+        var occurrences = counter.sinceLastEvent.sumThenReset();
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.atWarn()
+                    .addKeyValue("event", "token_parse_failure")
+                    .addKeyValue("source", this.source)
+                    .addKeyValue("kind", kind)
+                    .addKeyValue("occurrences", occurrences)
+                    .addKeyValue("total", counter.total.sum())
+                    .setCause(LOGGER.isDebugEnabled() ? exception : null)
+                    .log("Token parse failure {} in {}: {} ({} since last event)",
+                            kind, this.source, exception != null ? exception.getMessage() : "", occurrences);
+        }
+    }
+
+    public long getCount(TokenFailureKind kind) {
+        return this.counters.get(kind).total.sum();
+    }
+
+    private static final class Counter {
+
+        private final LongAdder total = new LongAdder();
+
+        private final LongAdder sinceLastEvent = new LongAdder();
+
+        private final AtomicLong lastEventAt;
+
+        private Counter(long lastEventAt) {
+            this.lastEventAt = new AtomicLong(lastEventAt);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package pro.akosarev.sandbox;
+
+import java.util.function.Consumer;
+
+/**
+ * Общий для всех узлов уровень {@link TwoTierCache} - например, Redis с каналом pub/sub.
+ *
+ * За балансировщиком с round-robin один и тот же токен приходит на разные узлы, и каждый заново
+ * проверяет подпись и загружает того же пользователя. Общий уровень позволяет сделать это один раз на весь кластер.
+ *
+ * Значения из общего уровня принимаются без повторной проверки, поэтому доступ на запись в него
+ * должен быть защищен не хуже ключей подписи токенов.
+ *
+ * Реализация сама сериализует значения и ключи (например, хэширует длинную строку токена).
+ * Ошибки соединения выбрасываются как RuntimeException: {@link TwoTierCache} считает их промахом.
+ * Для тестов есть {@link InProcessSharedCacheTier}.
+ *
+ * @param <V> тип значения
+ */
+public interface SharedCacheTier<V> {
+
+    /**
+     * @return значение или null, если его нет или срок истек
+     */
+    Entry<V> get(String key);
+
+    /**
+     * Сохраняет значение до {@code entry.expiresAtEpochSecond()}.
+     */
+    void put(String key, Entry<V> entry);
+
+    /**
+     * Удаляет значение и рассылает сообщение об инвалидации всем узлам, включая этот.
+     */
+    void invalidate(String key);
+
+    /**
+     * Подписка на сообщения об инвалидации: слушатель получает ключ, удаленный любым узлом.
+     */
+    void addInvalidationListener(Consumer<String> listener);
+
+    /**
+     * @param value                значение
+     * @param expiresAtEpochSecond до какого момента значение действительно
+     */
+    record Entry<V>(V value, long expiresAtEpochSecond) {
+    }
+}
@@ -0,0 +1,62 @@
+package pro.akosarev.sandbox;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Ограничение числа одновременных операций на ключ (имя пользователя, IP-адрес).
+ *
+ * Вместо карты "ключ -> счетчик", которая растет вместе с числом атакующих адресов,
+ * используется фиксированная таблица счетчиков: ключ хешируется в одну из полос (stripe).
+ * Разные ключи могут попасть в одну полосу и делить лимит - ограничение получается
+ * консервативным, зато память постоянна, а захват и освобождение - один CAS без блокировок.
+ */
+public class StripedConcurrencyLimiter {
+
+    private final AtomicIntegerArray stripes;
+
+    private final int mask;
+
+    private final int limit;
+
+    /**
+     * @param stripes число полос, округляется вверх до степени двойки
+     * @param limit   максимум одновременных операций на полосу
+     */
+    public StripedConcurrencyLimiter(int stripes, int limit) {
+        var size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+        this.limit = limit;
+    }
+
+    /**
+     * @return номер захваченной полосы или -1, если лимит для ключа исчерпан
+     */
+    public int tryAcquire(Object key) {
+        var stripe = stripeOf(key);
+        while (true) {
+            var current = this.stripes.get(stripe);
+            if (current >= this.limit) {
+                return -1;
+            }
+            if (this.stripes.compareAndSet(stripe, current, current + 1)) {
+                return stripe;
+            }
+        }
+    }
+
+    public void release(int stripe) {
+        if (stripe >= 0) {
+            this.stripes.decrementAndGet(stripe);
+        }
+    }
+
+    private int stripeOf(Object key) {
+        var hash = key == null ? 0 : key.hashCode();
+        // перемешиваем биты, чтобы похожие строки не собирались в соседних полосах
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return hash & this.mask;
+    }
+}
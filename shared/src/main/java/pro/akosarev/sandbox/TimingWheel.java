@@ -0,0 +1,311 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Иерархическое колесо таймеров для состояния в памяти, которое живет ровно до expiresAt токена:
+ * кэши расшифрованных токенов, отметки отзыва, дедупликация продлений.
+ *
+ * Просмотр всей таблицы в поисках истекших записей стоит O(n) на каждый проход, а ScheduledFuture
+ * на каждую запись - O(log n) на вставку в очередь и задача в куче планировщика. Здесь вставка и отмена -
+ * O(1): запись попадает в ячейку колеса по сроку и стоит в двусвязном списке этой ячейки.
+ *
+ * Колесо из {@value #LEVELS} уровней по {@value #SLOTS} ячеек: ячейка нулевого уровня - один тик,
+ * каждого следующего - в {@value #SLOTS} раз больше. При тике 1 с нулевой уровень покрывает минуту,
+ * первый - час, второй - трое суток, третий - полгода; более далекие сроки ждут на верхнем уровне
+ * и переносятся заново. Когда нижний уровень проходит полный круг, ячейка следующего уровня
+ * раскладывается по нижнему (cascade).
+ *
+ * Один фоновый поток раз в тик забирает все записи наступившей ячейки и выполняет их действия
+ * пакетом, вне блокировки. Действия должны быть короткими: они выполняются в этом же потоке.
+ * Действие никогда не выполняется раньше срока; позже - не больше чем на один тик.
+ *
+ * Тики отсчитываются по переданным часам: в тестах колесо с {@link Clock#fixed} не выполняет
+ * ни одного действия, и истечение записей проверяется без гонки с реальным временем.
+ */
+public class TimingWheel implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static final int SLOT_BITS = 6;
+
+    static final int SLOTS = 1 << SLOT_BITS;
+
+    static final int LEVELS = 4;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // дальше этого числа тиков запись ставится на верхний уровень и переносится при его обороте
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static volatile TimingWheel defaultTimingWheel;
+
+    private final long tickMillis;
+
+    private final Clock clock;
+
+    // [уровень][ячейка] - голова двусвязного списка
+    private final Timeout[][] slots = new Timeout[LEVELS][SLOTS];
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition closed = this.lock.newCondition();
+
+    private final Thread worker;
+
+    // последний обработанный тик
+    private long currentTick;
+
+    private int size;
+
+    private boolean running = true;
+
+    /**
+     * Общее колесо процесса с тиком в одну секунду - сроки токенов и так хранятся с точностью до секунды.
+     * Создается при первом обращении, поток - демон.
+     */
+    public static TimingWheel getDefault() {
+        var timingWheel = defaultTimingWheel;
+        if (timingWheel == null) {
+            synchronized (TimingWheel.class) {
+                timingWheel = defaultTimingWheel;
+                if (timingWheel == null) {
+                    timingWheel = new TimingWheel(Duration.ofSeconds(1));
+                    defaultTimingWheel = timingWheel;
+                }
+            }
+        }
+
+        return timingWheel;
+    }
+
+    public TimingWheel(Duration tick) {
+        this(tick, Clock.systemUTC());
+    }
+
+    /**
+     * @param tick  длительность одного тика
+     * @param clock часы, по которым наступают тики
+     */
+    public TimingWheel(Duration tick, Clock clock) {
+        this.tickMillis = Math.max(1, tick.toMillis());
+        this.clock = clock;
+        this.currentTick = clock.millis() / this.tickMillis;
+        this.worker = Thread.ofPlatform().name("timing-wheel").daemon(true).start(this::run);
+    }
+
+    /**
+     * Планирует действие на момент expiresAt.
+     *
+     * @param expiresAt когда выполнить действие; прошедший срок - выполнить на ближайшем тике
+     * @param action    короткое действие, обычно удаление записи из структуры в памяти
+     * @return запись, которую можно отменить
+     */
+    public Timeout schedule(Instant expiresAt, Runnable action) {
+        // округление вверх: действие не должно выполниться раньше срока
+        var deadlineTick = Math.ceilDiv(expiresAt.toEpochMilli(), this.tickMillis);
+        var timeout = new Timeout(this, deadlineTick, action);
+        this.lock.lock();
+        try {
+            if (!this.running) {
+                throw new IllegalStateException("Timing wheel is closed");
+            }
+            // ячейка текущего тика уже обработана, поэтому не ближе следующей
+            place(timeout, 1);
+            this.size++;
+        } finally {
+            this.lock.unlock();
+        }
+
+        return timeout;
+    }
+
+    /**
+     * @return число запланированных и еще не выполненных действий
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void place(Timeout timeout, long minDelta) {
+        var delta = Math.max(minDelta, timeout.deadlineTick - this.currentTick);
+        var tick = this.currentTick + Math.min(delta, MAX_DELTA);
+        var level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        var slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = this.slots[level][slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        this.slots[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            this.slots[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    private void run() {
+        var expired = new ArrayList<Timeout>();
+        while (true) {
+            this.lock.lock();
+            try {
+                var nowTick = this.clock.millis() / this.tickMillis;
+                while (this.running && nowTick <= this.currentTick) {
+                    var untilNextTick = (this.currentTick + 1) * this.tickMillis - this.clock.millis();
+                    this.closed.await(Math.max(1, untilNextTick), TimeUnit.MILLISECONDS);
+                    nowTick = this.clock.millis() / this.tickMillis;
+                }
+                if (!this.running) {
+                    return;
+                }
+                while (this.currentTick < nowTick) {
+                    advance(expired);
+                }
+            } catch (InterruptedException exception) {
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            for (var timeout : expired) {
+                try {
+                    timeout.action.run();
+                } catch (RuntimeException exception) {
+                    LOGGER.warn("Timing wheel action failed", exception);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    // переходит к следующему тику и забирает записи его ячейки
+    private void advance(ArrayList<Timeout> expired) {
+        var tick = ++this.currentTick;
+
+        // полный круг нижнего уровня - раскладываем очередную ячейку верхнего, начиная с самого старшего
+        var cascadeLevels = 0;
+        while (cascadeLevels < LEVELS - 1 && (tick & ((1L << (SLOT_BITS * (cascadeLevels + 1))) - 1)) == 0) {
+            cascadeLevels++;
+        }
+        for (var level = cascadeLevels; level > 0; level--) {
+            var slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+            var timeout = this.slots[level][slot];
+            this.slots[level][slot] = null;
+            while (timeout != null) {
+                var next = timeout.next;
+                // срок, совпавший с текущим тиком, попадает в ячейку, которая обрабатывается ниже
+                place(timeout, 0);
+                timeout = next;
+            }
+        }
+
+        var slot = (int) tick & SLOT_MASK;
+        var timeout = this.slots[0][slot];
+        this.slots[0][slot] = null;
+        while (timeout != null) {
+            var next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.level = -1;
+            if (timeout.deadlineTick <= tick) {
+                expired.add(timeout);
+                this.size--;
+            } else {
+                // до срока больше, чем покрывает колесо, - ждем следующего оборота
+                place(timeout, 1);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Останавливает поток; запланированные действия не выполняются.
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.running = false;
+            this.closed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Запланированное действие.
+     */
+    public static final class Timeout {
+
+        private final TimingWheel timingWheel;
+
+        private final long deadlineTick;
+
+        private final Runnable action;
+
+        // положение в колесе; level = -1 - запись не в колесе (выполнена или отменена)
+        private int level = -1;
+
+        private int slot;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(TimingWheel timingWheel, long deadlineTick, Runnable action) {
+            this.timingWheel = timingWheel;
+            this.deadlineTick = deadlineTick;
+            this.action = action;
+        }
+
+        /**
+         * Отменяет действие, если оно еще не выполнено.
+         *
+         * @return true, если действие было отменено этим вызовом
+         */
+        public boolean cancel() {
+            var timingWheel = this.timingWheel;
+            timingWheel.lock.lock();
+            try {
+                if (this.level < 0) {
+                    return false;
+                }
+                timingWheel.unlink(this);
+                timingWheel.size--;
+                return true;
+            } finally {
+                timingWheel.lock.unlock();
+            }
+        }
+    }
+}
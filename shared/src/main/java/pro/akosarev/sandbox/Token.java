@@ -6,6 +6,29 @@ import java.util.UUID;
 
 // один класс для access и refresh токенов
 // String subject имя пользователя
-public record Token(UUID id, String subject, List<String> authorities, Instant createdAt,
-                    Instant expiresAt) {
+// хранение компактное, как у AccessToken: идентификатор - два long, время - epoch second
+// authenticatedAt - момент входа по паролю; при продлении куки переносится в новый токен без изменений
+public record Token(long idMostSigBits, long idLeastSigBits, String subject, List<String> authorities,
+                    long createdAtEpochSecond, long expiresAtEpochSecond, long authenticatedAtEpochSecond) {
+
+    public Token(UUID id, String subject, List<String> authorities, Instant createdAt, Instant expiresAt) {
+        this(id.getMostSignificantBits(), id.getLeastSignificantBits(), subject, authorities,
+                createdAt.getEpochSecond(), expiresAt.getEpochSecond(), createdAt.getEpochSecond());
+    }
+
+    public UUID id() {
+        return new UUID(this.idMostSigBits, this.idLeastSigBits);
+    }
+
+    public Instant createdAt() {
+        return Instant.ofEpochSecond(this.createdAtEpochSecond);
+    }
+
+    public Instant expiresAt() {
+        return Instant.ofEpochSecond(this.expiresAtEpochSecond);
+    }
+
+    public Instant authenticatedAt() {
+        return Instant.ofEpochSecond(this.authenticatedAtEpochSecond);
+    }
 }
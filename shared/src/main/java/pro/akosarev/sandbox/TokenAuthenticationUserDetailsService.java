@@ -7,25 +7,31 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 
-import java.time.Instant;
+import java.time.Clock;
 
 /**
  * Практическое значение:
  * Этот класс становится поставщиком данных пользователя для Spring Security.
  * Когда система получает токен аутентификации, она вызывает метод loadUserDetails(), который:
- *   Проверяет тип токена (RefreshToken, AccessToken или TokenUser)
+ *   Проверяет тип токена (RefreshToken, AccessToken, Token из куки или TokenUser)
  *   Загружает информацию о пользователе
- *   Проверяет, не деактивирован ли токен в БД
+ *   Проверяет, не деактивирован ли токен (RevocationStore)
  *   Возвращает объект UserDetails с правами доступа
  * Это контракт - Spring Security знает, что может вызвать этот метод для получения данных пользователя по токену.
  **/
 public class TokenAuthenticationUserDetailsService
         implements AuthenticationUserDetailsService<PreAuthenticatedAuthenticationToken> {
 
-    private final JdbcTemplate jdbcTemplate;
+    private final RevocationStore revocationStore;
+
+    private Clock clock = CachedClock.getDefault();
+
+    public TokenAuthenticationUserDetailsService(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
+    }
 
     public TokenAuthenticationUserDetailsService(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
+        this(new JdbcRevocationStore(jdbcTemplate));
     }
 
     @Override
@@ -34,10 +40,8 @@ public class TokenAuthenticationUserDetailsService
         // Обработка RefreshToken
         if (authenticationToken.getPrincipal() instanceof RefreshToken refreshToken) {
             return new TokenUser(refreshToken.subject(), "nopassword", true, true,
-                    !this.jdbcTemplate.queryForObject("""
-                            select exists(select id from t_deactivated_token where id = ?)
-                            """, Boolean.class, refreshToken.id()) &&
-                    refreshToken.expiresAt().isAfter(Instant.now()),
+                    !this.revocationStore.isRevoked(refreshToken.idMostSigBits(), refreshToken.idLeastSigBits()) &&
+                    refreshToken.expiresAtEpochSecond() * 1000 > this.clock.millis(),
                     true,
                     null, // RefreshToken не содержит authorities
                     refreshToken);
@@ -46,10 +50,8 @@ public class TokenAuthenticationUserDetailsService
         // Обработка AccessToken
         if (authenticationToken.getPrincipal() instanceof AccessToken accessToken) {
             return new TokenUser(accessToken.subject(), "nopassword", true, true,
-                    !this.jdbcTemplate.queryForObject("""
-                            select exists(select id from t_deactivated_token where id = ?)
-                            """, Boolean.class, accessToken.id()) &&
-                    accessToken.expiresAt().isAfter(Instant.now()),
+                    !this.revocationStore.isRevoked(accessToken.idMostSigBits(), accessToken.idLeastSigBits()) &&
+                    accessToken.expiresAtEpochSecond() * 1000 > this.clock.millis(),
                     true,
                     accessToken.authorities().stream()
                             .map(SimpleGrantedAuthority::new)
@@ -57,11 +59,26 @@ public class TokenAuthenticationUserDetailsService
                     null); // AccessToken не нуждается в RefreshToken
         }
 
+        // Обработка Token из куки (cookie-authentication): права берутся из токена, сам токен нужен логауту
+        if (authenticationToken.getPrincipal() instanceof Token token) {
+            return new TokenUser(token.subject(), "nopassword",
+                    !this.revocationStore.isRevoked(token.idMostSigBits(), token.idLeastSigBits()) &&
+                    token.expiresAtEpochSecond() * 1000 > this.clock.millis(),
+                    token.authorities().stream()
+                            .map(SimpleGrantedAuthority::new)
+                            .toList(),
+                    token);
+        }
+
         // Обработка уже построенного TokenUser (из JwtAuthenticationConverter)
         if (authenticationToken.getPrincipal() instanceof TokenUser tokenUser) {
             return tokenUser;
         }
 
-        throw new UsernameNotFoundException("Principal must be of type RefreshToken or AccessToken");
+        throw new UsernameNotFoundException("Principal must be of type RefreshToken, AccessToken or Token");
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package pro.akosarev.sandbox;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Отдельные пулы соединений для подсистемы токенов.
+ *
+ * Проверка отзыва выполняется на каждом запросе с токеном и занимает соединение на доли миллисекунды.
+ * В общем пуле она ждет соединения за работой с таблицами пользователей (вход, массовый выпуск токенов),
+ * поэтому токенам выделяется свой пул, а чтения t_deactivated_token можно увести на реплику.
+ * Запись отзыва всегда идет в основной пул: отметка, сделанная на реплике, не дошла бы до остальных.
+ * Чтение с реплики видит отзыв с задержкой репликации.
+ *
+ * Для PostgreSQL пул настраивается на кэш подготовленных выражений на сервере (pgjdbc):
+ * запрос проверки отзыва разбирается и планируется один раз на соединение, а не на каждый вызов.
+ *
+ * Ожидание соединения в обоих пулах считает {@link PoolWaitMetrics}.
+ */
+public class TokenDataSources implements AutoCloseable {
+
+    private final PoolWaitMetrics poolWaitMetrics = new PoolWaitMetrics();
+
+    private final HikariDataSource dataSource;
+
+    private final HikariDataSource revocationReadDataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcTemplate revocationReadJdbcTemplate;
+
+    /**
+     * Пулы создаются незапущенными и открывают соединения при первом обращении.
+     *
+     * @param config                 основной пул токенов
+     * @param revocationReadConfig   пул чтения отзыва, например на реплике; null - чтение из основного пула
+     */
+    public TokenDataSources(HikariConfig config, HikariConfig revocationReadConfig) {
+        this.dataSource = createDataSource(config);
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        if (revocationReadConfig != null) {
+            revocationReadConfig.setReadOnly(true);
+            this.revocationReadDataSource = createDataSource(revocationReadConfig);
+            this.revocationReadJdbcTemplate = new JdbcTemplate(this.revocationReadDataSource);
+        } else {
+            this.revocationReadDataSource = null;
+            this.revocationReadJdbcTemplate = this.jdbcTemplate;
+        }
+    }
+
+    private HikariDataSource createDataSource(HikariConfig config) {
+        config.setMetricsTrackerFactory(this.poolWaitMetrics);
+        var dataSource = new HikariDataSource();
+        config.copyStateTo(dataSource);
+        return dataSource;
+    }
+
+    /**
+     * Параметры pgjdbc для кэша подготовленных выражений.
+     *
+     * @param prepareThreshold      с какого выполнения выражение готовится на сервере; 1 - сразу
+     * @param statementCacheQueries сколько подготовленных выражений хранить на соединение
+     */
+    public static void configureStatementCache(HikariConfig config, int prepareThreshold, int statementCacheQueries) {
+        config.addDataSourceProperty("prepareThreshold", prepareThreshold);
+        config.addDataSourceProperty("preparedStatementCacheQueries", statementCacheQueries);
+    }
+
+    /**
+     * Основной пул: запись отзыва и чтение, если пул чтения не задан.
+     */
+    public JdbcTemplate getJdbcTemplate() {
+        return this.jdbcTemplate;
+    }
+
+    public JdbcTemplate getRevocationReadJdbcTemplate() {
+        return this.revocationReadJdbcTemplate;
+    }
+
+    public PoolWaitMetrics getPoolWaitMetrics() {
+        return this.poolWaitMetrics;
+    }
+
+    @Override
+    public void close() {
+        this.poolWaitMetrics.close();
+        if (this.revocationReadDataSource != null) {
+            this.revocationReadDataSource.close();
+        }
+        this.dataSource.close();
+    }
+}
@@ -0,0 +1,50 @@
+package pro.akosarev.sandbox;
+
+import java.util.UUID;
+
+/**
+ * Разбор идентификатора токена (jti) сразу в два long - без промежуточного UUID.
+ *
+ * Токены выпускаются с UUID в каноническом виде (8-4-4-4-12, 36 символов), его половины разбираются
+ * по фиксированным позициям. Любая другая запись разбирается через {@link UUID#fromString(String)},
+ * которая и бросит исключение для неверной строки.
+ */
+public final class TokenIds {
+
+    private TokenIds() {
+    }
+
+    public static long mostSigBits(String jti) {
+        if (!isCanonical(jti)) {
+            return UUID.fromString(jti).getMostSignificantBits();
+        }
+
+        return hex(jti, 0, 8) << 32 | hex(jti, 9, 13) << 16 | hex(jti, 14, 18);
+    }
+
+    public static long leastSigBits(String jti) {
+        if (!isCanonical(jti)) {
+            return UUID.fromString(jti).getLeastSignificantBits();
+        }
+
+        return hex(jti, 19, 23) << 48 | hex(jti, 24, 36);
+    }
+
+    private static boolean isCanonical(String jti) {
+        return jti.length() == 36 && jti.charAt(8) == '-' && jti.charAt(13) == '-' && jti.charAt(18) == '-'
+               && jti.charAt(23) == '-';
+    }
+
+    private static long hex(String string, int from, int to) {
+        var value = 0L;
+        for (var i = from; i < to; i++) {
+            var digit = Character.digit(string.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid token id: " + string);
+            }
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+}
@@ -6,16 +6,19 @@ import org.springframework.security.core.userdetails.User;
 import java.util.Collection;
 
 /**
- * Наследник превносит одно новое поле refreshToken
+ * Наследник превносит поле refreshToken (bearer) или token (кука модуля cookie-authentication)
  */
 public class TokenUser extends User {
 
     private final RefreshToken refreshToken;
 
+    private final Token token;
+
     public TokenUser(String username, String password, Collection<? extends GrantedAuthority> authorities, 
                      RefreshToken refreshToken) {
         super(username, password, authorities);
         this.refreshToken = refreshToken;
+        this.token = null;
     }
 
     public TokenUser(String username, String password, boolean enabled, boolean accountNonExpired, 
@@ -23,9 +26,24 @@ public class TokenUser extends User {
                      Collection<? extends GrantedAuthority> authorities, RefreshToken refreshToken) {
         super(username, password, enabled, accountNonExpired, credentialsNonExpired, accountNonLocked, authorities);
         this.refreshToken = refreshToken;
+        this.token = null;
+    }
+
+    /**
+     * Пользователь, аутентифицированный по куке с токеном: токен нужен логауту для отзыва.
+     */
+    public TokenUser(String username, String password, boolean credentialsNonExpired,
+                     Collection<? extends GrantedAuthority> authorities, Token token) {
+        super(username, password, true, true, credentialsNonExpired, true, authorities);
+        this.refreshToken = null;
+        this.token = token;
     }
 
     public RefreshToken getRefreshToken() {
         return refreshToken;
     }
+
+    public Token getToken() {
+        return token;
+    }
 }
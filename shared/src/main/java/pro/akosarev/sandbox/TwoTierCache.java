@@ -0,0 +1,256 @@
+package pro.akosarev.sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Двухуровневый кэш: локальный near-cache в памяти узла и необязательный общий уровень {@link SharedCacheTier}.
+ *
+ * Чтение идет сначала в локальную таблицу, при промахе - в общий уровень, и найденное там значение
+ * оседает локально. Запись попадает на оба уровня. Локальная запись живет до срока значения
+ * и удаляется в этот момент через {@link TimingWheel}, как в остальных кэшах токенов.
+ *
+ * {@link #invalidate} удаляет значение на обоих уровнях, а сообщение общего уровня убирает его
+ * из локальных таблиц остальных узлов. Значение, загруженное до инвалидации и записанное после нее,
+ * проживет до своего срока, поэтому срок значений, которые могут измениться (права пользователя),
+ * должен быть коротким.
+ *
+ * Недоступный общий уровень не ломает запросы: ошибка считается промахом и учитывается в метриках.
+ * Метрики, как и у {@link PoolWaitMetrics}, можно периодически писать в лог ({@link #setLogInterval}).
+ *
+ * @param <V> тип значения
+ */
+public class TwoTierCache<V> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TwoTierCache.class);
+
+    private final ConcurrentHashMap<String, SharedCacheTier.Entry<V>> local = new ConcurrentHashMap<>();
+
+    private final SharedCacheTier<V> sharedTier;
+
+    private final int maxLocalSize;
+
+    private final LongAdder localHits = new LongAdder();
+
+    private final LongAdder sharedHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder sharedFailures = new LongAdder();
+
+    private TimingWheel timingWheel = TimingWheel.getDefault();
+
+    private Clock clock = CachedClock.getDefault();
+
+    private String name = "cache";
+
+    private Metrics lastLogged = new Metrics(0, 0, 0, 0, 0);
+
+    private final PeriodicMetricsLog metricsLog = new PeriodicMetricsLog(this::log);
+
+    /**
+     * Только локальный уровень.
+     */
+    public TwoTierCache(int maxLocalSize) {
+        this(null, maxLocalSize);
+    }
+
+    /**
+     * @param sharedTier   общий уровень; null - только локальный
+     * @param maxLocalSize максимальное число значений в локальной таблице; при заполнении значения
+     *                     локально не сохраняются, пока не истекут старые
+     */
+    public TwoTierCache(SharedCacheTier<V> sharedTier, int maxLocalSize) {
+        this.sharedTier = sharedTier;
+        this.maxLocalSize = maxLocalSize;
+        if (sharedTier != null) {
+            sharedTier.addInvalidationListener(this.local::remove);
+        }
+    }
+
+    /**
+     * @return значение или null при промахе на обоих уровнях
+     */
+    public V get(String key) {
+        var now = this.clock.millis();
+        var entry = this.local.get(key);
+        if (entry != null) {
+            if (entry.expiresAtEpochSecond() * 1000 > now) {
+                this.localHits.increment();
+                return entry.value();
+            }
+            this.local.remove(key, entry);
+        }
+
+        if (this.sharedTier != null) {
+            try {
+                entry = this.sharedTier.get(key);
+            } catch (RuntimeException exception) {
+                sharedTierFailed(exception);
+                entry = null;
+            }
+            if (entry != null && entry.expiresAtEpochSecond() * 1000 > now) {
+                this.sharedHits.increment();
+                putLocal(key, entry);
+                return entry.value();
+            }
+        }
+
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * Сохраняет значение на обоих уровнях; значение с прошедшим сроком не сохраняется.
+     */
+    public void put(String key, V value, long expiresAtEpochSecond) {
+        if (expiresAtEpochSecond * 1000 <= this.clock.millis()) {
+            return;
+        }
+
+        var entry = new SharedCacheTier.Entry<>(value, expiresAtEpochSecond);
+        putLocal(key, entry);
+        if (this.sharedTier != null) {
+            try {
+                this.sharedTier.put(key, entry);
+            } catch (RuntimeException exception) {
+                sharedTierFailed(exception);
+            }
+        }
+    }
+
+    /**
+     * Сохраняет значение, только если действующего значения под этим ключом нет ни на одном уровне:
+     * срок уже закэшированного значения не продлевается. Нужен кэшам, в которые значение кладется
+     * после каждого чтения (UserCache в CachingUserDetailsService), - иначе срок отсчитывался бы
+     * от последнего обращения, а не от загрузки.
+     */
+    public void putIfAbsent(String key, V value, long expiresAtEpochSecond) {
+        var now = this.clock.millis();
+        var entry = this.local.get(key);
+        if (entry != null && entry.expiresAtEpochSecond() * 1000 > now) {
+            return;
+        }
+
+        // локально значения может не быть из-за заполненной таблицы, хотя общий уровень его отдал
+        if (this.sharedTier != null) {
+            try {
+                entry = this.sharedTier.get(key);
+            } catch (RuntimeException exception) {
+                sharedTierFailed(exception);
+                entry = null;
+            }
+            if (entry != null && entry.expiresAtEpochSecond() * 1000 > now) {
+                return;
+            }
+        }
+
+        put(key, value, expiresAtEpochSecond);
+    }
+
+    private void putLocal(String key, SharedCacheTier.Entry<V> entry) {
+        // замена допускается всегда, новая запись - только если есть место
+        if (this.local.size() >= this.maxLocalSize && !this.local.containsKey(key)) {
+            return;
+        }
+
+        this.local.put(key, entry);
+        // удаляет только свою запись: более новая под тем же ключом остается
+        this.timingWheel.schedule(Instant.ofEpochSecond(entry.expiresAtEpochSecond()),
+                () -> this.local.remove(key, entry));
+    }
+
+    /**
+     * Удаляет значение на этом узле и в общем уровне, остальные узлы получают сообщение об инвалидации.
+     */
+    public void invalidate(String key) {
+        this.local.remove(key);
+        if (this.sharedTier != null) {
+            try {
+                this.sharedTier.invalidate(key);
+            } catch (RuntimeException exception) {
+                sharedTierFailed(exception);
+            }
+        }
+    }
+
+    private void sharedTierFailed(RuntimeException exception) {
+        this.sharedFailures.increment();
+        LOGGER.debug("Shared cache tier is unavailable", exception);
+    }
+
+    /**
+     * Текущие значения счетчиков с создания кэша.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(this.localHits.sum(), this.sharedHits.sum(), this.misses.sum(),
+                this.sharedFailures.sum(), this.local.size());
+    }
+
+    /**
+     * Включает событие two_tier_cache в лог раз в logInterval, если за интервал к кэшу обращались.
+     * В событии - прирост счетчиков за интервал и доля попаданий.
+     */
+    public void setLogInterval(Duration logInterval) {
+        this.metricsLog.start(logInterval, this.timingWheel, this.clock);
+    }
+
+    private void log() {
+        var metrics = getMetrics();
+        var last = this.lastLogged;
+        this.lastLogged = metrics;
+        var localHits = metrics.localHits() - last.localHits();
+        var sharedHits = metrics.sharedHits() - last.sharedHits();
+        var misses = metrics.misses() - last.misses();
+        var sharedFailures = metrics.sharedFailures() - last.sharedFailures();
+        var lookups = localHits + sharedHits + misses;
+        if (lookups == 0 && sharedFailures == 0) {
+            return;
+        }
+
+        var hitPercent = lookups == 0 ? 0 : (localHits + sharedHits) * 100 / lookups;
+        LOGGER.atInfo()
+                .addKeyValue("event", "two_tier_cache")
+                .addKeyValue("cache", this.name)
+                .addKeyValue("local_hits", localHits)
+                .addKeyValue("shared_hits", sharedHits)
+                .addKeyValue("misses", misses)
+                .addKeyValue("shared_failures", sharedFailures)
+                .addKeyValue("hit_percent", hitPercent)
+                .addKeyValue("local_size", metrics.localSize())
+                .log("Cache {}: {} lookups, {}% hits, {} shared tier failures, {} local entries",
+                        this.name, lookups, hitPercent, sharedFailures, metrics.localSize());
+    }
+
+    /**
+     * @param name имя кэша в событии лога
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Останавливает событие в лог. Значения в кэше остаются и истекают как обычно.
+     */
+    @Override
+    public void close() {
+        this.metricsLog.close();
+    }
+
+    public record Metrics(long localHits, long sharedHits, long misses, long sharedFailures, int localSize) {
+    }
+}
@@ -0,0 +1,152 @@
+package pro.akosarev.sandbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileRevocationStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final TimingWheel timingWheel = new TimingWheel(Duration.ofMillis(10));
+
+    @AfterEach
+    void closeTimingWheel() {
+        this.timingWheel.close();
+    }
+
+    @Test
+    void revocationsSurviveReopen() throws IOException {
+        var now = Instant.now();
+        var tokenIds = new ArrayList<UUID>();
+        // сроки хранения разбросаны на час вперед - записи ложатся в несколько сегментов
+        try (var store = new MappedFileRevocationStore(this.directory, Duration.ofMinutes(5), 256)) {
+            for (var i = 0; i < 10_000; i++) {
+                var tokenId = UUID.randomUUID();
+                tokenIds.add(tokenId);
+                store.revoke(tokenId, now.plusSeconds(60 + i % 3600));
+            }
+        }
+
+        try (var store = new MappedFileRevocationStore(this.directory, Duration.ofMinutes(5), 256)) {
+            assertEquals(10_000, store.size());
+            for (var tokenId : tokenIds) {
+                assertTrue(store.isRevoked(tokenId), tokenId::toString);
+            }
+            assertFalse(store.isRevoked(UUID.randomUUID()));
+        }
+    }
+
+    @Test
+    void syncModeSurvivesReopen() throws IOException {
+        var tokenId = UUID.randomUUID();
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            store.setSync(true);
+            store.revoke(tokenId, Instant.now().plusSeconds(600));
+        }
+
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            assertTrue(store.isRevoked(tokenId));
+        }
+    }
+
+    @Test
+    void tornRecordPastCommitPositionIsNotReplayed() throws IOException {
+        var keepUntil = Instant.now().plusSeconds(600);
+        var committed = UUID.randomUUID();
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            store.revoke(committed, keepUntil);
+        }
+
+        // запись, которую процесс успел написать, но не успел зафиксировать в заголовке
+        var torn = UUID.randomUUID();
+        var segmentFile = singleSegment();
+        try (var channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE)) {
+            var record = ByteBuffer.allocate(MappedFileRevocationStore.RECORD_SIZE)
+                    .putLong(torn.getMostSignificantBits())
+                    .putLong(torn.getLeastSignificantBits())
+                    .putLong(keepUntil.getEpochSecond())
+                    .flip();
+            channel.write(record, 2L * MappedFileRevocationStore.RECORD_SIZE);
+        }
+
+        var next = UUID.randomUUID();
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            assertTrue(store.isRevoked(committed));
+            assertFalse(store.isRevoked(torn));
+            assertEquals(1, store.size());
+
+            // следующий отзыв занимает место оборванной записи
+            store.revoke(next, keepUntil);
+        }
+
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            assertTrue(store.isRevoked(committed));
+            assertTrue(store.isRevoked(next));
+            assertFalse(store.isRevoked(torn));
+        }
+    }
+
+    @Test
+    void expiredRevocationIsNotStored() throws IOException {
+        try (var store = new MappedFileRevocationStore(this.directory)) {
+            var tokenId = UUID.randomUUID();
+            store.revoke(tokenId, Instant.now().minusSeconds(1));
+
+            assertFalse(store.isRevoked(tokenId));
+            assertEquals(0, store.size());
+        }
+        try (var files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void replayedSegmentIsRemovedByInjectedTimingWheel() throws IOException, InterruptedException {
+        var tokenId = UUID.randomUUID();
+        try (var store = new MappedFileRevocationStore(this.directory, Duration.ofSeconds(1), 16)) {
+            store.revoke(tokenId, Instant.now().plusSeconds(2));
+        }
+
+        try (var store = new MappedFileRevocationStore(this.directory, Duration.ofSeconds(1), 16)) {
+            store.setTimingWheel(this.timingWheel);
+            assertEquals(1, this.timingWheel.size());
+
+            // сегмент заканчивается не позже чем через 2 с после отзыва
+            var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (store.size() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, store.size());
+            assertFalse(store.isRevoked(tokenId));
+        }
+        try (var files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private Path singleSegment() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            var segments = files.filter(file -> file.getFileName().toString()
+                    .endsWith(MappedFileRevocationStore.SEGMENT_SUFFIX)).toList();
+            assertEquals(1, segments.size());
+            return segments.getFirst();
+        }
+    }
+}
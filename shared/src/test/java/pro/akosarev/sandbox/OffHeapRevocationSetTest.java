@@ -0,0 +1,139 @@
+package pro.akosarev.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapRevocationSetTest {
+
+    @Test
+    void containsUntilKeepUntil() {
+        var set = new OffHeapRevocationSet(16);
+        var tokenId = UUID.randomUUID();
+        set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 100);
+
+        assertTrue(set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 99));
+        assertFalse(set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 100));
+        assertFalse(set.contains(tokenId.getLeastSignificantBits(), tokenId.getMostSignificantBits(), 99));
+        assertThrows(IllegalArgumentException.class, () -> set.add(0, 0, 100));
+    }
+
+    @Test
+    void repeatedAddExtendsKeepUntil() {
+        var set = new OffHeapRevocationSet(16);
+        var tokenId = UUID.randomUUID();
+        set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 200);
+        set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 100);
+
+        assertEquals(1, set.size());
+        assertFalse(set.removeIfExpired(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 150));
+        assertTrue(set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 150));
+        assertTrue(set.removeIfExpired(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 200));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    void churnThroughTombstonesMatchesModel() {
+        // маленькая таблица и одна полоса - цепочки пробирования длинные, надгробия и перестройки частые
+        var set = new OffHeapRevocationSet(8, 1);
+        var model = new HashMap<UUID, Long>();
+        var random = ThreadLocalRandom.current();
+        var ids = new ArrayList<UUID>();
+        for (var i = 0; i < 2_000; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        for (var now = 1L; now <= 200; now++) {
+            for (var i = 0; i < 100; i++) {
+                var tokenId = ids.get(random.nextInt(ids.size()));
+                var keepUntil = now + 1 + random.nextInt(20);
+                set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), keepUntil);
+                model.merge(tokenId, keepUntil, Math::max);
+            }
+
+            if (now % 2 == 0) {
+                set.removeExpired(now);
+            } else {
+                for (var tokenId : ids) {
+                    set.removeIfExpired(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), now);
+                }
+            }
+            final var current = now;
+            model.values().removeIf(keepUntil -> keepUntil <= current);
+
+            for (var tokenId : ids) {
+                assertEquals(model.containsKey(tokenId),
+                        set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), now),
+                        tokenId::toString);
+            }
+            assertEquals(model.size(), set.size());
+        }
+    }
+
+    @Test
+    void readersSeeStableEntriesDuringAddsAndSweeps() throws InterruptedException {
+        var set = new OffHeapRevocationSet(1024, 4);
+        var permanent = randomIds(10_000);
+        var absent = randomIds(10_000);
+        for (var tokenId : permanent) {
+            set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), Long.MAX_VALUE);
+        }
+
+        var running = new AtomicBoolean(true);
+        var failure = new AtomicReference<String>();
+        var readers = new ArrayList<Thread>();
+        for (var r = 0; r < 4; r++) {
+            readers.add(Thread.ofPlatform().name("reader-" + r).start(() -> {
+                while (running.get() && failure.get() == null) {
+                    for (var tokenId : permanent) {
+                        if (!set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 1)) {
+                            failure.compareAndSet(null, "lost " + tokenId);
+                        }
+                    }
+                    for (var tokenId : absent) {
+                        if (set.contains(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), 1)) {
+                            failure.compareAndSet(null, "phantom " + tokenId);
+                        }
+                    }
+                }
+            }));
+        }
+
+        // временные отметки живут один "тик": таблицы растут, заполняются надгробиями и перестраиваются
+        for (var now = 1L; now <= 50; now++) {
+            for (var i = 0; i < 4_000; i++) {
+                var tokenId = UUID.randomUUID();
+                set.add(tokenId.getMostSignificantBits(), tokenId.getLeastSignificantBits(), now + 1);
+            }
+            set.removeExpired(now + 1);
+        }
+        running.set(false);
+        for (var reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(permanent.size(), set.size());
+    }
+
+    private static List<UUID> randomIds(int count) {
+        var ids = new ArrayList<UUID>(count);
+        for (var i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID());
+        }
+
+        return ids;
+    }
+}
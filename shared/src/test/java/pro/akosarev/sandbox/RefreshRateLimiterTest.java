@@ -0,0 +1,37 @@
+package pro.akosarev.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefreshRateLimiterTest {
+
+    @Test
+    void allowsBurstThenAsksToWait() {
+        var limiter = new RefreshRateLimiter(Duration.ofMinutes(1), 3, 16);
+        var tokenId = UUID.randomUUID();
+
+        assertEquals(0, limiter.tryAcquire(tokenId));
+        assertEquals(0, limiter.tryAcquire(tokenId));
+        assertEquals(0, limiter.tryAcquire(tokenId));
+        var waitNanos = limiter.tryAcquire(tokenId);
+        assertTrue(waitNanos > 0 && waitNanos <= Duration.ofMinutes(1).toNanos(), () -> "wait " + waitNanos);
+
+        // другой ключ - своя корзина
+        assertEquals(0, limiter.tryAcquire(UUID.randomUUID()));
+    }
+
+    @Test
+    void subjectKeyLimitsAcrossTokens() {
+        var limiter = new RefreshRateLimiter(Duration.ofMinutes(1), 2, 16);
+
+        assertEquals(0, limiter.tryAcquire("j.jameson"));
+        assertEquals(0, limiter.tryAcquire(new StringBuilder("j.jameson")));
+        assertTrue(limiter.tryAcquire("j.jameson") > 0);
+        assertEquals(0, limiter.tryAcquire("j.jameson2"));
+    }
+}
@@ -0,0 +1,86 @@
+package pro.akosarev.sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    @Test
+    void manyTimersFireOnTimeOrAreCancelled() throws InterruptedException {
+        var count = 200_000;
+        try (var timingWheel = new TimingWheel(Duration.ofMillis(5))) {
+            var fired = new LongAdder();
+            var early = new LongAdder();
+            var cancelledFired = new LongAdder();
+            var pending = new CountDownLatch(count - count / 3);
+            var random = ThreadLocalRandom.current();
+            var start = System.currentTimeMillis();
+
+            for (var i = 0; i < count; i++) {
+                var cancelled = i % 3 == 2;
+                // до 3 с вперед - записи проходят через нижний и следующий уровни колеса;
+                // отменяемые - не ближе 100 тиков от момента планирования, чтобы колесо не успело их выполнить
+                var deadline = cancelled
+                        ? System.currentTimeMillis() + 500 + random.nextLong(2_500)
+                        : start + random.nextLong(3_000);
+                var timeout = timingWheel.schedule(Instant.ofEpochMilli(deadline), () -> {
+                    if (System.currentTimeMillis() < deadline) {
+                        early.increment();
+                    }
+                    if (cancelled) {
+                        cancelledFired.increment();
+                    } else {
+                        fired.increment();
+                        pending.countDown();
+                    }
+                });
+                if (cancelled) {
+                    timeout.cancel();
+                }
+            }
+
+            assertTrue(pending.await(10, TimeUnit.SECONDS), () -> "fired " + fired.sum());
+            assertEquals(count - count / 3, fired.sum());
+            assertEquals(0, early.sum());
+            assertEquals(0, cancelledFired.sum());
+            assertEquals(0, timingWheel.size());
+        }
+    }
+
+    @Test
+    void pastDeadlineFiresOnNextTick() throws InterruptedException {
+        try (var timingWheel = new TimingWheel(Duration.ofMillis(5))) {
+            var fired = new CountDownLatch(1);
+            timingWheel.schedule(Instant.now().minusSeconds(1), fired::countDown);
+
+            assertTrue(fired.await(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void cancelAfterFireReturnsFalse() throws InterruptedException {
+        try (var timingWheel = new TimingWheel(Duration.ofMillis(5))) {
+            var runs = new AtomicInteger();
+            var fired = new CountDownLatch(1);
+            var timeout = timingWheel.schedule(Instant.now().plusMillis(20), () -> {
+                runs.incrementAndGet();
+                fired.countDown();
+            });
+
+            assertTrue(fired.await(1, TimeUnit.SECONDS));
+            assertFalse(timeout.cancel());
+            assertEquals(1, runs.get());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package pro.akosarev.sandbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TwoTierCacheTest {
+
+    private static final long NOW = 1_000_000;
+
+    private static final Clock CLOCK = Clock.fixed(Instant.ofEpochSecond(NOW), ZoneOffset.UTC);
+
+    // колесо на тех же остановленных часах не удаляет записи само: истечение проверяется только по clock кэша
+    private final TimingWheel timingWheel = new TimingWheel(Duration.ofSeconds(1), CLOCK);
+
+    @AfterEach
+    void closeTimingWheel() {
+        this.timingWheel.close();
+    }
+
+    @Test
+    void putIfAbsentKeepsExpiryOfCachedValue() {
+        var cache = new TwoTierCache<String>(16);
+        cache.setTimingWheel(this.timingWheel);
+        cache.setClock(CLOCK);
+        cache.putIfAbsent("j.jameson", "loaded", NOW + 60);
+        cache.putIfAbsent("j.jameson", "reread", NOW + 120);
+
+        assertEquals("loaded", cache.get("j.jameson"));
+        cache.setClock(Clock.fixed(Instant.ofEpochSecond(NOW + 60), ZoneOffset.UTC));
+        assertNull(cache.get("j.jameson"));
+
+        cache.putIfAbsent("j.jameson", "reloaded", NOW + 120);
+        assertEquals("reloaded", cache.get("j.jameson"));
+    }
+
+    @Test
+    void putIfAbsentKeepsSharedValueWhenLocalTableIsFull() {
+        var sharedTier = new InProcessSharedCacheTier<String>();
+        sharedTier.setClock(CLOCK);
+        var cache = new TwoTierCache<>(sharedTier, 1);
+        cache.setTimingWheel(this.timingWheel);
+        cache.setClock(CLOCK);
+        cache.put("other", "other", NOW + 60);
+        sharedTier.put("j.jameson", new SharedCacheTier.Entry<>("loaded", NOW + 60));
+
+        assertEquals("loaded", cache.get("j.jameson"));
+        cache.putIfAbsent("j.jameson", "reread", NOW + 120);
+
+        assertEquals(new SharedCacheTier.Entry<>("loaded", NOW + 60), sharedTier.get("j.jameson"));
+    }
+}